@@ -0,0 +1,613 @@
+package mn.astvision.commontools.entityupdater;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoConnectionPoolClearedException;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoServerUnavailableException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous, batched audit log of {@link UpdateReport}s.
+ * <p>
+ * {@link #submit} encodes the report's changes to BSON on the calling thread and enqueues the bytes on a bounded
+ * lock-free queue, so the record reflects the update as submitted even if the entity or its collections change
+ * later. A background writer wraps queued changes as audit records and stores them with unordered
+ * {@code insertMany} calls of up to {@code batchSize} records, at least every {@code flushInterval}. Each record is
+ * {@code {_id, entity, entityId, at, changes: {$set: ..., $unset: ...}}}.
+ * <pre>{@code
+ * @Bean
+ * public AuditSink auditSink(MongoTemplate mongoTemplate) {
+ *     return AuditSink.builder(mongoTemplate, "update_audit")
+ *             .spillDirectory(Path.of("/var/lib/app/audit"))
+ *             .start();
+ * }
+ *
+ * UpdateReport report = PLAN.apply(citizen, updates);
+ * auditSink.submit(citizen, report);
+ * }</pre>
+ * When the queue is full, the {@link OverflowPolicy} applies. With a spill directory, the writer appends records
+ * that cannot be inserted while Mongo is down to local segment files and inserts them again once Mongo accepts
+ * writes; request threads never touch the spill log, and records reach it in the order they were queued. Records
+ * carry their {@code _id} from the moment they are encoded, so a replayed record that already reached Mongo is
+ * rejected as a duplicate and not stored twice.
+ * <p>
+ * Only connection, timeout and write concern failures count as Mongo being down. A record that Mongo or the driver
+ * rejects on its own (a validation error, a document over the size limit) is logged and dropped, and the rest of
+ * its batch or spill segment is stored as usual.
+ */
+@Slf4j
+public final class AuditSink implements AutoCloseable {
+
+    public enum OverflowPolicy {
+        /**
+         * {@link #submit} returns {@code false} and the report is counted as dropped.
+         */
+        DROP,
+        /**
+         * {@link #submit} waits until the queue has room or the sink is closed.
+         */
+        BLOCK
+    }
+
+    /**
+     * Point-in-time counters; flush latencies cover every {@code insertMany}, including replays.
+     */
+    public record Metrics(int queueDepth, long submitted, long written, long spilled, long replayed, long dropped,
+                          long flushes, long failedFlushes, long lastFlushNanos, long maxFlushNanos,
+                          long totalFlushNanos, long spillBytes) {
+
+        public double averageFlushMillis() {
+            return flushes == 0 ? 0 : totalFlushNanos / (double) flushes / 1_000_000;
+        }
+    }
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long DRAIN_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int MAX_DOCUMENT_BYTES = 16 << 20;
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+    private final MongoTemplate template;
+    private final MongoCollection<RawBsonDocument> collection;
+    private final CodecRegistry registry;
+    private final RecordQueue<Entry> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long retryIntervalNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final AuditSpillLog spill;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    // Written by the writer thread only
+    private final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    private boolean healthy = true;
+    private long retryAt;
+    private volatile long written;
+    private volatile long replayed;
+    private volatile long flushes;
+    private volatile long failedFlushes;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile long totalFlushNanos;
+
+    private AuditSink(Builder builder) {
+        this.template = builder.template;
+        this.collection = builder.template.getCollection(builder.collection).withDocumentClass(RawBsonDocument.class);
+        this.registry = builder.codecRegistry;
+        this.queue = new RecordQueue<>(builder.capacity);
+        this.batchSize = builder.batchSize;
+        this.flushIntervalNanos = builder.flushInterval.toNanos();
+        this.retryIntervalNanos = builder.retryInterval.toNanos();
+        this.overflowPolicy = builder.overflowPolicy;
+        try {
+            this.spill = builder.spillDirectory == null ? null
+                    : new AuditSpillLog(builder.spillDirectory, builder.segmentBytes, builder.maxSpillBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open audit spill directory: " + builder.spillDirectory, e);
+        }
+        this.writer = new Thread(this::run, "audit-sink-writer");
+        this.writer.setDaemon(true);
+    }
+
+    public static Builder builder(MongoTemplate template, String collection) {
+        return new Builder(template, collection);
+    }
+
+    // ======================
+    // Submission
+    // ======================
+
+    /**
+     * Audits the report of an update of a mapped entity, recorded under its collection name and id.
+     */
+    public boolean submit(Object entity, UpdateReport report) {
+        Object id = template.getConverter().getMappingContext().getRequiredPersistentEntity(entity.getClass())
+                .getIdentifierAccessor(entity).getIdentifier();
+        return submit(template.getCollectionName(entity.getClass()), id, report);
+    }
+
+    /**
+     * Encodes the report's changes and queues them; empty reports are ignored. The report is not used afterwards.
+     *
+     * @return {@code false} if the report was dropped because it could not be encoded, the queue was full or the
+     * sink is closed
+     */
+    public boolean submit(String entity, Object entityId, UpdateReport report) {
+        if (report == null || report.isEmpty()) return true;
+        submitted.increment();
+
+        RawBsonDocument changes = encodeChanges(entity, entityId, report);
+        if (changes == null) {
+            dropped.increment();
+            return false;
+        }
+
+        Entry entry = new Entry(entity, entityId, System.currentTimeMillis(), changes);
+        if (running && offer(entry)) return true;
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            while (running) {
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                if (offer(entry)) return true;
+            }
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private boolean offer(Entry entry) {
+        if (!queue.offer(entry)) return false;
+        // Wake the writer early once a full batch is waiting
+        if (queue.size() == batchSize) LockSupport.unpark(writer);
+        return true;
+    }
+
+    // ======================
+    // Writer
+    // ======================
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || queue.size() > 0) {
+            long deadline = System.nanoTime() + flushIntervalNanos;
+            queue.drainTo(batch, batchSize);
+            while (running && batch.size() < batchSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                LockSupport.parkNanos(Math.min(remaining, DRAIN_STEP_NANOS));
+                queue.drainTo(batch, batchSize);
+            }
+
+            boolean saturated = batch.size() == batchSize;
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+            // Spilled records catch up whenever the queue leaves room for it
+            if (spill != null && running && !saturated) replay();
+        }
+    }
+
+    private void flush(List<Entry> batch) {
+        List<RawBsonDocument> documents = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            RawBsonDocument document = encode(entry, buffer);
+            if (document != null) documents.add(document);
+        }
+        if (documents.isEmpty()) return;
+
+        // While Mongo is known to be down, go straight to the spill log until the next retry
+        int stored = healthy || System.nanoTime() - retryAt >= 0 ? insert(documents) : -1;
+        if (stored >= 0) {
+            written += stored;
+        } else if (spill == null || !append(documents)) {
+            dropped.add(documents.size());
+        }
+    }
+
+    /**
+     * Inserts spilled segments, oldest first, until a full batch is queued or an insert fails.
+     */
+    private void replay() {
+        if (!healthy && System.nanoTime() - retryAt < 0) return;
+        try {
+            Path segment;
+            while (queue.size() < batchSize && (segment = spill.oldest()) != null) {
+                List<RawBsonDocument> documents = AuditSpillLog.read(segment);
+                int stored = 0;
+                for (int from = 0; from < documents.size(); from += batchSize) {
+                    int inserted = insert(documents.subList(from, Math.min(from + batchSize, documents.size())));
+                    if (inserted < 0) return;
+                    stored += inserted;
+                }
+                // Rejected records were dropped, so the segment is done either way
+                spill.delete(segment);
+                written += stored;
+                replayed += stored;
+            }
+        } catch (IOException e) {
+            log.error("Failed to replay audit spill log", e);
+        }
+    }
+
+    /**
+     * @return number of records stored (duplicates of records stored before included), or -1 if Mongo is down
+     * and the whole batch has to be kept
+     */
+    private int insert(List<RawBsonDocument> documents) {
+        long start = System.nanoTime();
+        int rejected = 0;
+        try {
+            collection.insertMany(documents, UNORDERED);
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null) return failed(e);
+            rejected = reject(e, documents);
+        } catch (RuntimeException e) {
+            if (isUnavailable(e)) return failed(e);
+            // Rejected before or while sending, without saying which record caused it
+            if (documents.size() > 1) return insertEach(documents);
+            log.error("Audit record {} rejected, dropping it", id(documents.get(0)), e);
+            dropped.increment();
+            return 0;
+        }
+        succeeded(start);
+        return documents.size() - rejected;
+    }
+
+    private int insertEach(List<RawBsonDocument> documents) {
+        int stored = 0;
+        for (RawBsonDocument document : documents) {
+            // Records inserted before an outage are duplicates when the batch is retried
+            int inserted = insert(List.of(document));
+            if (inserted < 0) return -1;
+            stored += inserted;
+        }
+        return stored;
+    }
+
+    private void succeeded(long start) {
+        long elapsed = System.nanoTime() - start;
+        flushes++;
+        lastFlushNanos = elapsed;
+        totalFlushNanos += elapsed;
+        if (elapsed > maxFlushNanos) maxFlushNanos = elapsed;
+        if (!healthy) log.info("Audit sink writes to Mongo again");
+        healthy = true;
+    }
+
+    private int failed(RuntimeException e) {
+        failedFlushes++;
+        if (healthy) log.warn("Audit sink cannot write to Mongo, retrying every {} ms", retryIntervalNanos / 1_000_000, e);
+        healthy = false;
+        retryAt = System.nanoTime() + retryIntervalNanos;
+        return -1;
+    }
+
+    /**
+     * Drops the records that failed on their own. Records that were inserted before (e.g. a replayed segment)
+     * fail with duplicate key errors and count as stored.
+     *
+     * @return number of dropped records
+     */
+    private int reject(MongoBulkWriteException e, List<RawBsonDocument> documents) {
+        int rejected = 0;
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (error.getCode() == DUPLICATE_KEY) continue;
+            log.error("Audit record {} rejected with error {}, dropping it: {}", id(documents.get(error.getIndex())),
+                    error.getCode(), error.getMessage());
+            rejected++;
+        }
+        dropped.add(rejected);
+        return rejected;
+    }
+
+    /**
+     * Failures that say nothing about the records themselves, after which the whole batch is retried.
+     */
+    private static boolean isUnavailable(RuntimeException e) {
+        return e instanceof MongoSocketException
+                || e instanceof MongoTimeoutException
+                || e instanceof MongoExecutionTimeoutException
+                || e instanceof MongoConnectionPoolClearedException
+                || e instanceof MongoServerUnavailableException
+                || e instanceof MongoNotPrimaryException
+                || e instanceof MongoNodeIsRecoveringException
+                || e instanceof MongoWriteConcernException;
+    }
+
+    private static Object id(RawBsonDocument document) {
+        try {
+            return document.get("_id");
+        } catch (RuntimeException e) {
+            return "<unreadable>";
+        }
+    }
+
+    private boolean append(List<RawBsonDocument> documents) {
+        try {
+            if (!spill.append(documents)) return false;
+            spilled.add(documents.size());
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to append to audit spill log", e);
+            return false;
+        }
+    }
+
+    private RawBsonDocument encodeChanges(String entity, Object entityId, UpdateReport report) {
+        BasicOutputBuffer output = new BasicOutputBuffer(256);
+        try (BsonBinaryWriter bson = new BsonBinaryWriter(output)) {
+            report.writeBsonUpdate(bson, registry);
+            if (output.getPosition() > MAX_DOCUMENT_BYTES) {
+                log.error("Audit changes of {} {} are {} bytes, over the document size limit; dropping them",
+                        entity, entityId, output.getPosition());
+                return null;
+            }
+            return new RawBsonDocument(output.toByteArray());
+        } catch (RuntimeException e) {
+            // e.g. a value without a codec
+            log.error("Failed to encode audit changes of {} {}", entity, entityId, e);
+            return null;
+        }
+    }
+
+    private RawBsonDocument encode(Entry entry, BasicOutputBuffer output) {
+        output.truncateToPosition(0);
+        try (BsonBinaryWriter bson = new BsonBinaryWriter(output)) {
+            bson.writeStartDocument();
+            bson.writeObjectId("_id", new ObjectId());
+            bson.writeName("entity");
+            if (entry.entity == null) bson.writeNull();
+            else bson.writeString(entry.entity);
+            bson.writeName("entityId");
+            MongoUpdateOperators.writeValue(bson, entry.entityId, registry);
+            bson.writeDateTime("at", entry.timestamp);
+            bson.writeName("changes");
+            bson.pipe(new BsonBinaryReader(entry.changes.getByteBuffer().asNIO()));
+            bson.writeEndDocument();
+            if (output.getPosition() > MAX_DOCUMENT_BYTES) {
+                // Mongo would never accept it, so it is not spilled either
+                log.error("Audit record of {} {} is {} bytes, over the document size limit; dropping it",
+                        entry.entity, entry.entityId, output.getPosition());
+                dropped.increment();
+                return null;
+            }
+            return new RawBsonDocument(output.toByteArray());
+        } catch (RuntimeException e) {
+            // e.g. a value without a codec; the record is lost, the writer keeps going
+            log.error("Failed to encode audit record of {} {}", entry.entity, entry.entityId, e);
+            dropped.increment();
+            return null;
+        }
+    }
+
+    // ======================
+    // Lifecycle & metrics
+    // ======================
+
+    private AuditSink start() {
+        writer.start();
+        return this;
+    }
+
+    /**
+     * Stops accepting reports, writes what is queued (to Mongo or the spill log) and stops the writer.
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+            if (writer.isAlive()) log.warn("Audit sink writer did not finish, {} records left", queue.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                log.error("Failed to close audit spill log", e);
+            }
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(queue.size(), submitted.sum(), written, spilled.sum(), replayed, dropped.sum(),
+                flushes, failedFlushes, lastFlushNanos, maxFlushNanos, totalFlushNanos, spill != null ? spill.bytes() : 0);
+    }
+
+    private record Entry(String entity, Object entityId, long timestamp, RawBsonDocument changes) {
+    }
+
+    // ======================
+    // Queue
+    // ======================
+
+    /**
+     * Bounded multi-producer, single-consumer array queue. Each slot carries a sequence number: producers claim
+     * a position with one CAS on the tail and publish the slot by advancing its sequence; the consumer frees it
+     * by moving the sequence one lap ahead. The capacity is rounded up to a power of two.
+     */
+    static final class RecordQueue<E> {
+        private final Object[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        RecordQueue(int capacity) {
+            int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+            slots = new Object[size];
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) sequences.set(i, i);
+            mask = size - 1;
+        }
+
+        boolean offer(E entry) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long sequence = sequences.getAcquire(index);
+                if (sequence == position) {
+                    if (tail.weakCompareAndSetVolatile(position, position + 1)) {
+                        slots[index] = entry;
+                        sequences.setRelease(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (sequence < position) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * Moves queued records into the batch until it holds {@code limit} records; consumer only.
+         */
+        @SuppressWarnings("unchecked")
+        void drainTo(List<E> batch, int limit) {
+            long position = head.get();
+            while (batch.size() < limit) {
+                int index = (int) (position & mask);
+                if (sequences.getAcquire(index) != position + 1) break;
+                batch.add((E) slots[index]);
+                slots[index] = null;
+                sequences.setRelease(index, position + slots.length);
+                position++;
+            }
+            head.lazySet(position);
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head.get());
+        }
+    }
+
+    // ======================
+    // Builder
+    // ======================
+
+    public static final class Builder {
+        private final MongoTemplate template;
+        private final String collection;
+        private int capacity = 8_192;
+        private int batchSize = 500;
+        private Duration flushInterval = Duration.ofMillis(200);
+        private Duration retryInterval = Duration.ofSeconds(5);
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+        private Path spillDirectory;
+        private long segmentBytes = 8L << 20;
+        private long maxSpillBytes = 256L << 20;
+        private CodecRegistry codecRegistry = MongoUpdateOperators.DEFAULT_REGISTRY;
+
+        private Builder(MongoTemplate template, String collection) {
+            this.template = template;
+            this.collection = collection;
+        }
+
+        /**
+         * Queue size, rounded up to a power of two.
+         */
+        public Builder capacity(int capacity) {
+            if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Longest time a queued report waits for its batch to fill up.
+         */
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Pause after a failed insert before Mongo is tried again; meanwhile batches go to the spill log.
+         */
+        public Builder retryInterval(Duration retryInterval) {
+            this.retryInterval = retryInterval;
+            return this;
+        }
+
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Enables the local spill log in this directory; segments left by a previous run are replayed.
+         */
+        public Builder spillDirectory(Path spillDirectory) {
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        public Builder segmentBytes(long segmentBytes) {
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * Spill log size limit; beyond it, records that cannot be inserted are dropped.
+         */
+        public Builder maxSpillBytes(long maxSpillBytes) {
+            this.maxSpillBytes = maxSpillBytes;
+            return this;
+        }
+
+        /**
+         * Registry used to encode changed values and ids, e.g. {@code mongoTemplate.getDb().getCodecRegistry()}.
+         */
+        public Builder codecRegistry(CodecRegistry codecRegistry) {
+            this.codecRegistry = codecRegistry;
+            return this;
+        }
+
+        public AuditSink start() {
+            return new AuditSink(this).start();
+        }
+    }
+}
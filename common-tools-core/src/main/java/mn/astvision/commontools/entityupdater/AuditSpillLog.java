@@ -0,0 +1,138 @@
+package mn.astvision.commontools.entityupdater;
+
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only segment files for audit records that could not be written to Mongo; used by the writer thread.
+ * <p>
+ * Records are stored as plain concatenated BSON documents, so a segment is read back by walking the length
+ * prefixes; a document cut off by a crash ends the segment. Segments are named by the time the log was opened
+ * and a sequence number, which makes name order the write order, also across restarts. Only sealed segments are
+ * replayed; the one being appended to is sealed when nothing older is left.
+ */
+final class AuditSpillLog {
+
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final long openedAt = System.currentTimeMillis();
+
+    private long bytes;
+    private int sequence;
+    private Path currentPath;
+    private FileChannel current;
+    private long currentSize;
+
+    AuditSpillLog(Path directory, long segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        for (Path segment : segments()) {
+            bytes += Files.size(segment);
+        }
+    }
+
+    /**
+     * Appends all documents, or none of them if they would take the log past its size limit.
+     */
+    synchronized boolean append(List<RawBsonDocument> documents) throws IOException {
+        long size = 0;
+        for (RawBsonDocument document : documents) {
+            size += document.getByteBuffer().remaining();
+        }
+        if (bytes + size > maxBytes) return false;
+
+        if (current == null || currentSize >= segmentBytes) roll();
+        for (RawBsonDocument document : documents) {
+            ByteBuffer buffer = document.getByteBuffer().asNIO();
+            while (buffer.hasRemaining()) {
+                current.write(buffer);
+            }
+        }
+        currentSize += size;
+        bytes += size;
+        return true;
+    }
+
+    private void roll() throws IOException {
+        seal();
+        currentPath = directory.resolve(String.format("%s%013d-%06d%s", PREFIX, openedAt, sequence++, SUFFIX));
+        current = FileChannel.open(currentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentSize = 0;
+    }
+
+    private void seal() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+            currentPath = null;
+        }
+    }
+
+    /**
+     * @return the oldest sealed segment, or {@code null} if nothing was spilled
+     */
+    synchronized Path oldest() throws IOException {
+        List<Path> segments = segments();
+        if (segments.isEmpty()) return null;
+        Path oldest = segments.get(0);
+        if (oldest.equals(currentPath)) {
+            if (currentSize == 0) return null;
+            seal();
+        }
+        return oldest;
+    }
+
+    synchronized void delete(Path segment) throws IOException {
+        long size = Files.size(segment);
+        Files.delete(segment);
+        bytes -= size;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    synchronized void close() throws IOException {
+        seal();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    static List<RawBsonDocument> read(Path segment) throws IOException {
+        byte[] data = Files.readAllBytes(segment);
+        ByteBuffer lengths = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+        List<RawBsonDocument> documents = new ArrayList<>();
+        int position = 0;
+        while (position + 4 <= data.length) {
+            int length = lengths.getInt(position);
+            if (length < 5 || position + length > data.length) break;
+            documents.add(new RawBsonDocument(data, position, length));
+            position += length;
+        }
+        return documents;
+    }
+}
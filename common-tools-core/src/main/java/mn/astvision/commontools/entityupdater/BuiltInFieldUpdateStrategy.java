@@ -1,5 +1,7 @@
 package mn.astvision.commontools.entityupdater;
 
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+
 import java.lang.reflect.Field;
 import java.util.*;
 
@@ -7,10 +9,10 @@ public enum BuiltInFieldUpdateStrategy implements EntityUpdater.FieldUpdateStrat
     REPLACE {
         @Override
         public void apply(Object target, Field field, Object newValue, UpdateReport report, String parentField) throws IllegalAccessException {
-            field.setAccessible(true);
-            Object oldValue = field.get(target);
+            FieldAccessor accessor = ClassUpdatePlan.accessor(target, field);
+            Object oldValue = accessor.get(target);
             if (!Objects.equals(oldValue, newValue)) {
-                field.set(target, newValue);
+                accessor.set(target, newValue);
                 if (report != null) {
                     String path = parentField.isEmpty() ? field.getName() : parentField + "." + field.getName();
                     report.addChange(path, oldValue, newValue);
@@ -20,20 +22,20 @@ public enum BuiltInFieldUpdateStrategy implements EntityUpdater.FieldUpdateStrat
     }, MERGE {
         @Override
         public void apply(Object target, Field field, Object newValue, UpdateReport report, String parentField) throws IllegalAccessException {
-            field.setAccessible(true);
-            Object oldValue = field.get(target);
+            FieldAccessor accessor = ClassUpdatePlan.accessor(target, field);
+            Object oldValue = accessor.get(target);
             String name = parentField.isEmpty() ? field.getName() : parentField + "." + field.getName();
             if (oldValue instanceof Map && newValue instanceof Map) {
                 Map<Object, Object> merged = new LinkedHashMap<>((Map<?, ?>) oldValue);
                 merged.putAll((Map<?, ?>) newValue);
-                field.set(target, merged);
+                accessor.set(target, merged);
                 if (report != null) {
                     report.addMapChange(name, (Map<?, ?>) oldValue, merged);
                 }
             } else if (oldValue instanceof Collection && newValue instanceof Collection) {
                 Collection<Object> merged = new ArrayList<>((Collection<?>) oldValue);
                 merged.addAll((Collection<?>) newValue);
-                field.set(target, merged);
+                accessor.set(target, merged);
                 if (report != null) {
                     report.addCollectionChange(name, (Collection<?>) oldValue, merged);
                 }
@@ -44,12 +46,12 @@ public enum BuiltInFieldUpdateStrategy implements EntityUpdater.FieldUpdateStrat
     }, APPEND {
         @Override
         public void apply(Object target, Field field, Object newValue, UpdateReport report, String parentField) throws IllegalAccessException {
-            field.setAccessible(true);
-            Object oldValue = field.get(target);
+            FieldAccessor accessor = ClassUpdatePlan.accessor(target, field);
+            Object oldValue = accessor.get(target);
             if (oldValue instanceof Collection && newValue instanceof Collection) {
                 Collection<Object> appended = new ArrayList<>((Collection<?>) oldValue);
                 appended.addAll((Collection<?>) newValue);
-                field.set(target, appended);
+                accessor.set(target, appended);
                 if (report != null) {
                     String path = parentField.isEmpty() ? field.getName() : parentField + "." + field.getName();
                     report.addCollectionChange(path, (Collection<?>) oldValue, appended);
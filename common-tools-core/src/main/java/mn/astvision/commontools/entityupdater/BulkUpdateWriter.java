@@ -0,0 +1,74 @@
+package mn.astvision.commontools.entityupdater;
+
+import com.mongodb.bulk.BulkWriteResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+
+/**
+ * Persists batches of {@link UpdateReport}s as unordered bulk writes, one {@code updateOne} per changed entity.
+ * <pre>{@code
+ * List<UpdateReport> reports = EntityUpdater.updateAll(pairs, plan);
+ * int modified = BulkUpdateWriter.write(mongoTemplate, Citizen.class, targets, reports);
+ * }</pre>
+ * Operations are sent in chunks of {@code batchSize}, so an import takes a few round trips instead of one per document.
+ */
+@Slf4j
+public final class BulkUpdateWriter {
+
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+
+    private BulkUpdateWriter() {
+    }
+
+    public static <T> int write(MongoTemplate template, Class<T> type, List<T> targets, List<UpdateReport> reports) {
+        return write(template, type, targets, reports, DEFAULT_BATCH_SIZE, false);
+    }
+
+    /**
+     * @param targets  updated entities, matched to {@code reports} by index; their ids select the documents
+     * @param granular use {@link UpdateReport#toGranularMongoUpdate()} instead of whole-value {@code $set}s
+     * @return number of modified documents
+     */
+    public static <T> int write(MongoTemplate template, Class<T> type, List<T> targets, List<UpdateReport> reports,
+                                int batchSize, boolean granular) {
+        if (targets.size() != reports.size()) {
+            throw new IllegalArgumentException("Targets and reports differ in size: " + targets.size() + " != " + reports.size());
+        }
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+
+        MongoPersistentEntity<?> entity = template.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+
+        int modified = 0;
+        BulkOperations operations = null;
+        int pending = 0;
+        for (int i = 0; i < reports.size(); i++) {
+            UpdateReport report = reports.get(i);
+            if (report == null || report.isEmpty()) continue;
+
+            Object id = entity.getIdentifierAccessor(targets.get(i)).getRequiredIdentifier();
+            if (operations == null) operations = template.bulkOps(BulkOperations.BulkMode.UNORDERED, type);
+            operations.updateOne(Query.query(Criteria.where("_id").is(id)),
+                    granular ? report.toGranularMongoUpdate() : report.toMongoUpdate());
+
+            if (++pending == batchSize) {
+                modified += execute(operations, pending);
+                operations = null;
+                pending = 0;
+            }
+        }
+        if (pending > 0) modified += execute(operations, pending);
+        return modified;
+    }
+
+    private static int execute(BulkOperations operations, int size) {
+        BulkWriteResult result = operations.execute();
+        log.debug("Bulk update of {} documents: matched {}, modified {}", size, result.getMatchedCount(), result.getModifiedCount());
+        return result.getModifiedCount();
+    }
+}
@@ -0,0 +1,203 @@
+package mn.astvision.commontools.entityupdater;
+
+import lombok.extern.slf4j.Slf4j;
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+import org.springframework.data.annotation.Transient;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static mn.astvision.commontools.entityupdater.ReflectionUtil.getAllFields;
+import static mn.astvision.commontools.entityupdater.ReflectionUtil.isPrimitiveOrWrapperOrString;
+
+/**
+ * Precomputed, immutable per-class metadata used by {@link EntityUpdater} and {@link EntityCloner}.
+ * <p>
+ * Field discovery, accessor creation, skip flags and type category resolution happen once per class
+ * instead of once per field on every update.
+ * <p>
+ * The plan also counts updates of its type and, once a threshold is reached, lazily generates a
+ * {@link SpecializedUpdater} for it (tiered specialization).
+ */
+@Slf4j
+public final class ClassUpdatePlan {
+
+    private static final ClassValue<ClassUpdatePlan> PLANS = new ClassValue<>() {
+        @Override
+        protected ClassUpdatePlan computeValue(Class<?> type) {
+            return new ClassUpdatePlan(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final List<FieldPlan> fields;
+    private final List<FieldPlan> updatableFields;
+    private final List<FieldPlan> copyableFields;
+    private final Map<Field, FieldPlan> byField;
+    private final Map<String, FieldPlan> byName;
+
+    private final AtomicInteger invocations = new AtomicInteger();
+    private volatile SpecializedUpdater specialized;
+    private volatile boolean specializationFailed;
+    private final byte[] plainModes;
+    private final byte[] plainSkipNullModes;
+
+    private ClassUpdatePlan(Class<?> type) {
+        this.type = type;
+
+        List<FieldPlan> all = new ArrayList<>();
+        List<FieldPlan> updatable = new ArrayList<>();
+        List<FieldPlan> copyable = new ArrayList<>();
+        Map<Field, FieldPlan> index = new HashMap<>();
+        Map<String, FieldPlan> names = new HashMap<>();
+        for (Field field : getAllFields(type)) {
+            FieldPlan plan = FieldPlan.of(field);
+            all.add(plan);
+            index.put(field, plan);
+            names.putIfAbsent(plan.name(), plan);
+            if (!plan.skipped()) updatable.add(plan);
+            if (!plan.staticField()) copyable.add(plan);
+        }
+
+        this.fields = List.copyOf(all);
+        this.updatableFields = List.copyOf(updatable);
+        this.copyableFields = List.copyOf(copyable);
+        this.byField = Map.copyOf(index);
+        this.byName = Map.copyOf(names);
+
+        this.plainModes = new byte[updatable.size()];
+        this.plainSkipNullModes = new byte[updatable.size()];
+        Arrays.fill(plainModes, SpecializedUpdater.PLAIN);
+        Arrays.fill(plainSkipNullModes, SpecializedUpdater.PLAIN_SKIP_NULLS);
+    }
+
+    public static ClassUpdatePlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * All declared fields of the class hierarchy, in {@link ReflectionUtil#getAllFields} order.
+     */
+    public List<FieldPlan> getFields() {
+        return fields;
+    }
+
+    /**
+     * Fields that are candidates for update: {@code @Transient}, static final and system fields are excluded.
+     */
+    public List<FieldPlan> getUpdatableFields() {
+        return updatableFields;
+    }
+
+    /**
+     * Instance (non-static) fields, used for copying.
+     */
+    public List<FieldPlan> getCopyableFields() {
+        return copyableFields;
+    }
+
+    /**
+     * Plan of a field declared in this class hierarchy, or {@code null} if the field does not belong to it.
+     */
+    public FieldPlan getField(Field field) {
+        return byField.get(field);
+    }
+
+    /**
+     * Plan of the field with the given name, nearest declaration first, or {@code null} if there is none.
+     */
+    public FieldPlan getField(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Cached accessor for a field of the given target, falling back to a fresh accessor for foreign fields.
+     */
+    public static FieldAccessor accessor(Object target, Field field) {
+        FieldPlan plan = target != null ? of(target.getClass()).getField(field) : null;
+        return plan != null ? plan.accessor() : FieldAccessors.of(field);
+    }
+
+    // ======================
+    // Tiered specialization
+    // ======================
+
+    /**
+     * Counts an update of this type and returns the generated updater once {@code threshold} updates have
+     * been seen, or {@code null} while still in the generic tier. A negative threshold disables generation.
+     */
+    public SpecializedUpdater specialized(int threshold) {
+        SpecializedUpdater current = specialized;
+        if (current != null || threshold < 0 || specializationFailed) return current;
+        if (invocations.incrementAndGet() < threshold) return null;
+
+        synchronized (this) {
+            if (specialized == null && !specializationFailed) {
+                try {
+                    specialized = UpdaterGenerator.generate(this);
+                } catch (Throwable e) {
+                    specializationFailed = true;
+                    log.debug("Specialized updater not available for {}, staying on generic path", type.getName(), e);
+                }
+            }
+            return specialized;
+        }
+    }
+
+    /**
+     * Shared field modes for updates without per-field configuration. Callers must not modify the array.
+     */
+    byte[] uniformModes(boolean skipNulls) {
+        return skipNulls ? plainSkipNullModes : plainModes;
+    }
+
+    // ======================
+    // Field plan
+    // ======================
+
+    public enum FieldKind {
+        SIMPLE, COLLECTION, MAP, NESTED;
+
+        static FieldKind of(Class<?> type) {
+            if (isPrimitiveOrWrapperOrString(type) || type.isEnum()) return SIMPLE;
+            if (Collection.class.isAssignableFrom(type)) return COLLECTION;
+            if (Map.class.isAssignableFrom(type)) return MAP;
+            return NESTED;
+        }
+    }
+
+    /**
+     * @param primitive boxing-free access for primitive fields, {@code null} for all other fields
+     */
+    public record FieldPlan(Field field, FieldAccessor accessor, String name, FieldKind kind, boolean transientField,
+                            boolean staticField, boolean finalField, boolean systemField, PrimitiveAccess primitive) {
+
+        static FieldPlan of(Field field) {
+            int modifiers = field.getModifiers();
+            FieldAccessor accessor = FieldAccessors.of(field);
+            return new FieldPlan(
+                    field,
+                    accessor,
+                    field.getName(),
+                    FieldKind.of(field.getType()),
+                    field.isAnnotationPresent(Transient.class),
+                    Modifier.isStatic(modifiers),
+                    Modifier.isFinal(modifiers),
+                    EntityUpdater.SYSTEM_FIELDS.contains(field.getName()),
+                    PrimitiveAccess.of(field));
+        }
+
+        /**
+         * Whether the updater always skips this field regardless of builder configuration.
+         */
+        public boolean skipped() {
+            return transientField || (staticField && finalField) || systemField;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package mn.astvision.commontools.entityupdater;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Type-dispatched {@link FieldConverter}s, registered for every field or for one field name.
+ * <p>
+ * The chain applied to a value is every converter whose {@link FieldConverter#supports(Class, Class)} accepts
+ * the value's runtime type and the field's declared type, in this order: converters registered for the field
+ * name, then converters for all fields; converters of this registry before those of its parent. Each converter
+ * is selected by the type of the value it receives, i.e. the previous converter's output, and the selection is
+ * cached per (field name and type, chain position, source type); fields without any candidate converter skip
+ * the lookup.
+ * <pre>{@code
+ * ConverterRegistry.global().register(new TrimmingConverter());             // all plans, all fields
+ *
+ * ConverterRegistry registry = new ConverterRegistry()                      // falls back to global()
+ *         .register("phoneNumber", new PhoneConverter());
+ * UpdatePlan<Citizen> plan = EntityUpdater.plan(Citizen.class).converterRegistry(registry).compile();
+ * }</pre>
+ * Registering a converter invalidates the cached chains of this registry and of every registry below it.
+ */
+public final class ConverterRegistry {
+
+    private static final ConverterRegistry GLOBAL = new ConverterRegistry(null);
+
+    private static final FieldConverter[] NONE = new FieldConverter[0];
+
+    private final ConverterRegistry parent;
+    private final List<FieldConverter> converters = new CopyOnWriteArrayList<>();
+    private final Map<String, List<FieldConverter>> fieldConverters = new ConcurrentHashMap<>();
+    private volatile int version;
+
+    private final Map<FieldKey, Resolution> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty registry that falls back to {@link #global()}.
+     */
+    public ConverterRegistry() {
+        this(GLOBAL);
+    }
+
+    ConverterRegistry(ConverterRegistry parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Registry shared by all plans; plans without an explicit registry use it directly.
+     */
+    public static ConverterRegistry global() {
+        return GLOBAL;
+    }
+
+    // ======================
+    // Registration
+    // ======================
+
+    public synchronized ConverterRegistry register(FieldConverter converter) {
+        if (converter != null) {
+            converters.add(converter);
+            version++;
+        }
+        return this;
+    }
+
+    public synchronized ConverterRegistry register(String fieldName, FieldConverter converter) {
+        if (fieldName != null && converter != null) {
+            fieldConverters.computeIfAbsent(fieldName, name -> new CopyOnWriteArrayList<>()).add(converter);
+            version++;
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return converters.isEmpty() && fieldConverters.isEmpty() && (parent == null || parent.isEmpty());
+    }
+
+    /**
+     * Whether any converter is registered that could apply to the field, whatever the value's type.
+     */
+    boolean hasCandidates(String fieldName) {
+        for (ConverterRegistry registry = this; registry != null; registry = registry.parent) {
+            if (!registry.converters.isEmpty() || registry.fieldConverters.containsKey(fieldName)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Changes whenever a converter is registered here or in a parent.
+     */
+    int stamp() {
+        return parent == null ? version : version + parent.stamp();
+    }
+
+    // ======================
+    // Conversion
+    // ======================
+
+    /**
+     * Runs the chain resolved for the field and the value's runtime type; {@code null} is passed through.
+     * <p>
+     * When a converter changes the value's type, the remaining converters are selected again for the new type,
+     * so that each one only sees values it supports.
+     */
+    public Object convert(Field field, Object value) {
+        return convert(field.getName(), field.getType(), value);
+    }
+
+    /**
+     * Same as {@link #convert(Field, Object)} for a field given by its name and declared type.
+     */
+    public Object convert(String fieldName, Class<?> fieldType, Object value) {
+        if (value == null) return null;
+
+        Resolution resolution = resolve(new FieldKey(fieldName, fieldType));
+        Object result = value;
+        int next = 0;
+        while (next < resolution.candidates.length) {
+            Class<?> sourceType = result.getClass();
+            int[] steps = resolution.steps(next, sourceType);
+            next = resolution.candidates.length;
+            for (int index : steps) {
+                result = resolution.candidates[index].convert(result);
+                if (result == null) return null;
+                if (result.getClass() != sourceType) {
+                    next = index + 1;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Resolution resolve(FieldKey field) {
+        // Resolutions made before a registration are replaced on their next use
+        int stamp = stamp();
+        Resolution resolution = cache.get(field);
+        if (resolution == null || resolution.stamp != stamp) {
+            resolution = candidates(field, stamp);
+            cache.put(field, resolution);
+        }
+        return resolution;
+    }
+
+    private Resolution candidates(FieldKey field, int stamp) {
+        List<FieldConverter> candidates = new ArrayList<>();
+        for (ConverterRegistry registry = this; registry != null; registry = registry.parent) {
+            List<FieldConverter> named = registry.fieldConverters.get(field.name());
+            if (named != null) candidates.addAll(named);
+        }
+        for (ConverterRegistry registry = this; registry != null; registry = registry.parent) {
+            candidates.addAll(registry.converters);
+        }
+        return new Resolution(stamp, field.type(), candidates.toArray(NONE));
+    }
+
+    private record FieldKey(String name, Class<?> type) {
+    }
+
+    /**
+     * Candidate converters of one field, with the supported subset cached per chain position and source type.
+     */
+    private static final class Resolution {
+        private static final int[] NO_STEPS = new int[0];
+
+        private final int stamp;
+        private final Class<?> targetType;
+        private final FieldConverter[] candidates;
+        // Index i: candidates from position i on that support a source type; later positions are only
+        // reached after a converter changed the value's type
+        private final List<Map<Class<?>, int[]>> bySource;
+
+        private Resolution(int stamp, Class<?> targetType, FieldConverter[] candidates) {
+            this.stamp = stamp;
+            this.targetType = targetType;
+            this.candidates = candidates;
+            this.bySource = new ArrayList<>(candidates.length);
+            for (int i = 0; i < candidates.length; i++) {
+                bySource.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        int[] steps(int from, Class<?> sourceType) {
+            Map<Class<?>, int[]> cache = bySource.get(from);
+            int[] steps = cache.get(sourceType);
+            if (steps == null) steps = cache.computeIfAbsent(sourceType, type -> select(from, type));
+            return steps;
+        }
+
+        private int[] select(int from, Class<?> sourceType) {
+            int[] steps = new int[candidates.length - from];
+            int count = 0;
+            for (int i = from; i < candidates.length; i++) {
+                if (candidates[i].supports(sourceType, targetType)) steps[count++] = i;
+            }
+            return count == 0 ? NO_STEPS : Arrays.copyOf(steps, count);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package mn.astvision.commontools.entityupdater;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.springframework.asm.Opcodes.*;
+
+/**
+ * Generates field copiers for {@link EntityCloner} as hidden nestmate classes of the entity type.
+ * <p>
+ * The generated {@code BiConsumer<Object, Object>} assigns the given fields of its first argument to its second
+ * with plain {@code getfield}/{@code putfield} instructions, so one call replaces a pair of method handle calls
+ * per field. It only takes fields whose value is copied by reference; see {@link #isDirectlyCopyable}.
+ */
+final class CopierGenerator {
+
+    private static final int SOURCE = 1, COPY = 2, TYPED_SOURCE = 3, TYPED_COPY = 4;
+
+    private CopierGenerator() {
+    }
+
+    static BiConsumer<Object, Object> generate(Class<?> type, List<Field> fields) throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+
+        byte[] bytecode = generateBytecode(type, fields);
+        MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytecode, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+        @SuppressWarnings("unchecked")
+        BiConsumer<Object, Object> copier = (BiConsumer<Object, Object>) hidden
+                .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        return copier;
+    }
+
+    /**
+     * Non-final instance fields declared in the entity's nest; final fields can only be written by constructors.
+     */
+    static boolean isDirectlyCopyable(Class<?> type, Field field) {
+        int modifiers = field.getModifiers();
+        return !Modifier.isStatic(modifiers)
+                && !Modifier.isFinal(modifiers)
+                && field.getDeclaringClass().getNestHost() == type.getNestHost();
+    }
+
+    private static byte[] generateBytecode(Class<?> type, List<Field> fields) {
+        String owner = Type.getInternalName(type);
+        String className = owner + "$$Copier";
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, "java/lang/Object",
+                new String[]{"java/util/function/BiConsumer"});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "accept", "(Ljava/lang/Object;Ljava/lang/Object;)V", null, null);
+        mv.visitCode();
+
+        mv.visitVarInsn(ALOAD, SOURCE);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, TYPED_SOURCE);
+        mv.visitVarInsn(ALOAD, COPY);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, TYPED_COPY);
+
+        for (Field field : fields) {
+            // copy.field = source.field
+            String fieldOwner = Type.getInternalName(field.getDeclaringClass());
+            String desc = Type.getDescriptor(field.getType());
+            mv.visitVarInsn(ALOAD, TYPED_COPY);
+            mv.visitVarInsn(ALOAD, TYPED_SOURCE);
+            mv.visitFieldInsn(GETFIELD, fieldOwner, field.getName(), desc);
+            mv.visitFieldInsn(PUTFIELD, fieldOwner, field.getName(), desc);
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,177 @@
+package mn.astvision.commontools.entityupdater;
+
+import lombok.extern.slf4j.Slf4j;
+import mn.astvision.commontools.entityupdater.annotations.TrackChanges;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertCallback;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot-on-load, diff-on-save partial updates for entities annotated with {@link TrackChanges}.
+ * <p>
+ * Registered as a bean, the tracker receives every converted entity from {@link MongoTemplate} and keeps the
+ * loaded {@link Document} as its snapshot (weakly, by identity). {@link #save(Object)} converts the entity
+ * again, diffs both documents into an {@link UpdateReport} and issues a single {@code updateFirst} with only
+ * the changed paths.
+ * <pre>{@code
+ * @Bean
+ * public DirtyTracker dirtyTracker(MongoTemplate mongoTemplate) {
+ *     return new DirtyTracker(mongoTemplate);
+ * }
+ *
+ * Citizen citizen = mongoTemplate.findById(id, Citizen.class);
+ * citizen.setPhone("99112233");
+ * dirtyTracker.save(citizen);   // {$set: {phone: "99112233"}}
+ * }</pre>
+ * Entities that were not loaded through the template, or that carry a {@code @Version} property, are saved in
+ * full with {@link MongoTemplate#save(Object)}.
+ */
+@Slf4j
+public class DirtyTracker implements AfterConvertCallback<Object> {
+
+    private static final ClassValue<Boolean> TRACKED = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return type.isAnnotationPresent(TrackChanges.class);
+        }
+    };
+
+    private final MongoTemplate template;
+    private final Map<IdentityKey, Document> snapshots = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    public DirtyTracker(MongoTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Object onAfterConvert(Object entity, Document document, String collection) {
+        if (TRACKED.get(entity.getClass())) {
+            expungeCollected();
+            snapshots.put(new IdentityKey(entity, collected), document);
+        }
+        return entity;
+    }
+
+    public boolean isTracked(Object entity) {
+        return entity != null && snapshots.containsKey(new IdentityKey(entity, null));
+    }
+
+    /**
+     * Stops tracking the entity; its next save is a full save.
+     */
+    public void detach(Object entity) {
+        if (entity != null) snapshots.remove(new IdentityKey(entity, null));
+    }
+
+    // ======================
+    // Save
+    // ======================
+
+    public <T> T save(T entity) {
+        expungeCollected();
+
+        IdentityKey key = new IdentityKey(entity, null);
+        Document snapshot = snapshots.get(key);
+        MongoPersistentEntity<?> persistentEntity = template.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(entity.getClass());
+
+        if (snapshot == null || persistentEntity.hasVersionProperty()) {
+            return template.save(entity);
+        }
+
+        Document current = new Document();
+        template.getConverter().write(entity, current);
+
+        UpdateReport report = diff(snapshot, current);
+        if (!report.isEmpty()) {
+            Object id = current.get("_id");
+            String collection = template.getCollectionName(entity.getClass());
+            // Keys are already mapped field names, so the collection-name overload skips property mapping
+            template.updateFirst(Query.query(Criteria.where("_id").is(id)), report.toGranularMongoUpdate(), collection);
+            log.debug("Partial save of {} {}: {} changed paths", collection, id, report.size());
+        }
+
+        snapshots.put(new IdentityKey(entity, collected), current);
+        return entity;
+    }
+
+    /**
+     * Diffs two stored documents into a report keyed by dotted field paths.
+     */
+    static UpdateReport diff(Document snapshot, Document current) {
+        UpdateReport report = new UpdateReport();
+        diff("", snapshot, current, report);
+        return report;
+    }
+
+    private static void diff(String prefix, Map<String, Object> old, Map<String, Object> current, UpdateReport report) {
+        for (Map.Entry<String, Object> entry : current.entrySet()) {
+            String path = prefix + entry.getKey();
+            Object oldValue = old.get(entry.getKey());
+            Object newValue = entry.getValue();
+            if (old.containsKey(entry.getKey()) && Objects.equals(oldValue, newValue)) continue;
+
+            if (oldValue instanceof Document oldDoc && newValue instanceof Document newDoc && hasPathSafeKeys(oldDoc) && hasPathSafeKeys(newDoc)) {
+                diff(path + ".", oldDoc, newDoc, report);
+            } else if (oldValue instanceof List<?> oldList && newValue instanceof List<?> newList) {
+                report.addCollectionChange(path, oldList, newList);
+            } else {
+                report.addChange(path, oldValue, newValue);
+            }
+        }
+        for (Map.Entry<String, Object> entry : old.entrySet()) {
+            if (!current.containsKey(entry.getKey())) report.addChange(prefix + entry.getKey(), entry.getValue(), null);
+        }
+    }
+
+    private static boolean hasPathSafeKeys(Document document) {
+        for (String key : document.keySet()) {
+            if (key.isEmpty() || key.indexOf('.') >= 0 || key.startsWith("$")) return false;
+        }
+        return true;
+    }
+
+    // ======================
+    // Weak identity keys
+    // ======================
+
+    private void expungeCollected() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            snapshots.remove(reference);
+        }
+    }
+
+    private static final class IdentityKey extends WeakReference<Object> {
+        private final int hash;
+
+        private IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof IdentityKey key)) return false;
+            Object referent = get();
+            return referent != null && referent == key.get();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package mn.astvision.commontools.entityupdater;
+
+import lombok.extern.slf4j.Slf4j;
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Deep and shallow copies of entity graphs, driven by cached per-class clone plans.
+ * <p>
+ * A plan holds the no-arg constructor as a {@link MethodHandle} and a generated copier (see
+ * {@link CopierGenerator}) for the primitive and immutable fields of the entity's own nest; the remaining fields
+ * go through their {@link ClassUpdatePlan} accessors, primitives without boxing. Values are handled by runtime
+ * type:
+ * <ul>
+ *     <li>immutable values (strings, wrappers, enums, {@code java.time} types, {@code BigDecimal}, {@code UUID},
+ *     {@code ObjectId}, ...) are shared, not copied</li>
+ *     <li>{@code Date}s and {@code EnumSet}s are cloned</li>
+ *     <li>arrays, collections and maps are copied into presized instances of the same type; types that cannot be
+ *     instantiated (e.g. {@code List.of(...)}, unmodifiable views) become {@code ArrayList},
+ *     {@code LinkedHashSet} or {@code LinkedHashMap}</li>
+ *     <li>other JDK types are shared</li>
+ *     <li>records, and final-field value objects without a no-arg constructor, are built through their canonical
+ *     constructor (see {@link ValueConstructor}) from copies of their components</li>
+ * </ul>
+ * A deep clone copies every object of the source graph once, so shared references and cycles are preserved in
+ * the copy. Objects nested deeper than {@value #MAX_RECURSION} levels are copied from a work queue instead of
+ * the call stack, except set elements, map keys and the components of values, which are completed before use.
+ * <pre>{@code
+ * Citizen snapshot = EntityCloner.deepClone(citizen);
+ * Citizen sameChildren = EntityCloner.shallowClone(citizen);
+ * }</pre>
+ */
+@Slf4j
+public final class EntityCloner {
+
+    private static final int MAX_RECURSION = 256;
+    /**
+     * Larger identity maps are dropped after a clone, so that one huge graph does not keep its table per thread.
+     */
+    private static final int MAX_POOLED_SIZE = 1 << 12;
+
+    private static final ThreadLocal<Cloning> POOL = ThreadLocal.withInitial(Cloning::new);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType FACTORY_TYPE = MethodType.methodType(Object.class);
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = Set.of(
+            BigDecimal.class, BigInteger.class, UUID.class, Class.class, Locale.class, Currency.class,
+            Pattern.class, URI.class, URL.class, ObjectId.class, Decimal128.class);
+
+    private enum Kind {IMMUTABLE, SELF_CLONING, ARRAY, COLLECTION, MAP, SHARED, VALUE, OBJECT}
+
+    private static final ClassValue<Kind> KINDS = new ClassValue<>() {
+        @Override
+        protected Kind computeValue(Class<?> type) {
+            return kindOf(type);
+        }
+    };
+
+    private static final ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            return constructorOf(type);
+        }
+    };
+
+    private static final ClassValue<ClonePlan> PLANS = new ClassValue<>() {
+        @Override
+        protected ClonePlan computeValue(Class<?> type) {
+            return new ClonePlan(type);
+        }
+    };
+
+    private EntityCloner() {
+    }
+
+    /**
+     * Copies the whole graph reachable from the source; immutable values are shared.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deepClone(T source) {
+        if (source == null) return null;
+
+        // A clone started from within a clone (e.g. by a constructor) gets its own state
+        Cloning cloning = POOL.get();
+        if (cloning.inUse) cloning = new Cloning();
+        cloning.inUse = true;
+        try {
+            return (T) cloning.run(source);
+        } finally {
+            cloning.release();
+        }
+    }
+
+    /**
+     * Copies the source object, collection, map or array only; its fields and elements are shared with the source.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T shallowClone(T source) {
+        if (source == null) return null;
+        return switch (KINDS.get(source.getClass())) {
+            case IMMUTABLE, SHARED -> source;
+            case SELF_CLONING -> (T) selfClone(source);
+            case VALUE -> {
+                ValueConstructor constructor = ValueConstructor.of(source.getClass());
+                yield (T) constructor.construct(constructor.values(source));
+            }
+            case ARRAY -> {
+                int length = Array.getLength(source);
+                Object copy = Array.newInstance(source.getClass().getComponentType(), length);
+                System.arraycopy(source, 0, copy, 0, length);
+                yield (T) copy;
+            }
+            case COLLECTION -> {
+                Collection<Object> copy = newCollection((Collection<?>) source);
+                copy.addAll((Collection<?>) source);
+                yield (T) copy;
+            }
+            case MAP -> {
+                Map<Object, Object> copy = newMap((Map<?, ?>) source);
+                copy.putAll((Map<?, ?>) source);
+                yield (T) copy;
+            }
+            case OBJECT -> {
+                ClonePlan plan = PLANS.get(source.getClass());
+                Object copy = plan.instantiate();
+                if (plan.direct != null) plan.direct.accept(source, copy);
+                for (FieldCopy field : plan.fields) {
+                    if (field.primitive != null) field.primitive.transfer(source, copy);
+                    else field.set(copy, field.get(source));
+                }
+                yield (T) copy;
+            }
+        };
+    }
+
+    // ======================
+    // Deep copy
+    // ======================
+
+    /**
+     * State of one deep clone: the copy of every source object visited so far, by identity, and the objects
+     * whose contents are still to be copied.
+     */
+    private static final class Cloning {
+        private IdentityHashMap<Object, Object> copies = new IdentityHashMap<>();
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private boolean inUse;
+        private int depth;
+        // > 0 while copying a set element or map key, which must be complete before it is hashed
+        private int eager;
+
+        void release() {
+            if (copies.size() > MAX_POOLED_SIZE) copies = new IdentityHashMap<>();
+            else copies.clear();
+            pending.clear();
+            depth = 0;
+            eager = 0;
+            inUse = false;
+        }
+
+        Object run(Object source) {
+            Object copy = copy(source);
+            Object next;
+            while ((next = pending.poll()) != null) {
+                fill(next, copies.get(next));
+            }
+            return copy;
+        }
+
+        Object copy(Object value) {
+            if (value == null) return null;
+            Kind kind = KINDS.get(value.getClass());
+            if (kind == Kind.IMMUTABLE || kind == Kind.SHARED) return value;
+
+            Object copy = copies.get(value);
+            if (copy != null) return copy;
+            if (kind == Kind.VALUE) return copyValue(value);
+
+            copy = switch (kind) {
+                case SELF_CLONING -> selfClone(value);
+                case ARRAY -> Array.newInstance(value.getClass().getComponentType(), Array.getLength(value));
+                case COLLECTION -> newCollection((Collection<?>) value);
+                case MAP -> newMap((Map<?, ?>) value);
+                default -> PLANS.get(value.getClass()).instantiate();
+            };
+            // Registered before the contents, so that back-references resolve to this copy
+            copies.put(value, copy);
+            if (kind == Kind.SELF_CLONING) return copy;
+
+            if (depth < MAX_RECURSION || eager > 0) {
+                depth++;
+                try {
+                    fill(value, copy);
+                } finally {
+                    depth--;
+                }
+            } else {
+                pending.add(value);
+            }
+            return copy;
+        }
+
+        /**
+         * Constructs a value from copies of its components, which therefore have to be complete first.
+         */
+        private Object copyValue(Object value) {
+            ValueConstructor constructor = ValueConstructor.of(value.getClass());
+            Object[] components = constructor.values(value);
+            for (int i = 0; i < components.length; i++) {
+                components[i] = copyEager(components[i]);
+            }
+            // Reached again through a cycle while copying the components
+            Object existing = copies.get(value);
+            if (existing != null) return existing;
+
+            Object copy = constructor.construct(components);
+            copies.put(value, copy);
+            return copy;
+        }
+
+        private Object copyEager(Object value) {
+            eager++;
+            try {
+                return copy(value);
+            } finally {
+                eager--;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void fill(Object source, Object copy) {
+            if (copy instanceof Collection<?>) {
+                Collection<Object> target = (Collection<Object>) copy;
+                boolean hashed = copy instanceof Set<?>;
+                for (Object element : (Collection<?>) source) {
+                    target.add(hashed ? copyEager(element) : copy(element));
+                }
+            } else if (copy instanceof Map<?, ?>) {
+                Map<Object, Object> target = (Map<Object, Object>) copy;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) source).entrySet()) {
+                    Object key = copyEager(entry.getKey());
+                    target.put(key, copy(entry.getValue()));
+                }
+            } else if (copy.getClass().isArray()) {
+                fillArray(source, copy);
+            } else {
+                ClonePlan plan = PLANS.get(source.getClass());
+                if (plan.direct != null) plan.direct.accept(source, copy);
+                for (FieldCopy field : plan.fields) {
+                    if (field.primitive != null) field.primitive.transfer(source, copy);
+                    else if (field.immutable) field.set(copy, field.get(source));
+                    else field.set(copy, copy(field.get(source)));
+                }
+            }
+        }
+
+        private void fillArray(Object source, Object copy) {
+            int length = Array.getLength(source);
+            if (source.getClass().getComponentType().isPrimitive()) {
+                System.arraycopy(source, 0, copy, 0, length);
+                return;
+            }
+            Object[] from = (Object[]) source;
+            Object[] to = (Object[]) copy;
+            for (int i = 0; i < length; i++) {
+                to[i] = copy(from[i]);
+            }
+        }
+    }
+
+    // ======================
+    // Collections & maps
+    // ======================
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(Collection<?> source) {
+        int size = source.size();
+        Class<?> type = source.getClass();
+        if (type == ArrayList.class) return new ArrayList<>(size);
+        if (type == HashSet.class) return new HashSet<>(capacity(size));
+        if (type == LinkedHashSet.class) return new LinkedHashSet<>(capacity(size));
+        if (type == TreeSet.class) return new TreeSet<>((Comparator<Object>) ((TreeSet<?>) source).comparator());
+        if (type == ArrayDeque.class) return new ArrayDeque<>(size);
+        if (type == LinkedList.class) return new LinkedList<>();
+
+        MethodHandle constructor = CONSTRUCTORS.get(type);
+        if (constructor != null) return (Collection<Object>) instantiate(constructor, type);
+        return source instanceof Set<?> ? new LinkedHashSet<>(capacity(size)) : new ArrayList<>(size);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<Object, Object> newMap(Map<?, ?> source) {
+        int size = source.size();
+        Class<?> type = source.getClass();
+        if (type == HashMap.class) return new HashMap<>(capacity(size));
+        if (type == LinkedHashMap.class) return new LinkedHashMap<>(capacity(size));
+        if (type == TreeMap.class) return new TreeMap<>((Comparator<Object>) ((TreeMap<?, ?>) source).comparator());
+        if (type == ConcurrentHashMap.class) return new ConcurrentHashMap<>(capacity(size));
+        if (type == EnumMap.class) {
+            // Keeps the key type, which EnumMap does not expose
+            EnumMap copy = new EnumMap((EnumMap) source);
+            copy.clear();
+            return copy;
+        }
+
+        MethodHandle constructor = CONSTRUCTORS.get(type);
+        if (constructor != null) return (Map<Object, Object>) instantiate(constructor, type);
+        return new LinkedHashMap<>(capacity(size));
+    }
+
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    private static Object selfClone(Object value) {
+        return value instanceof Date date ? date.clone() : ((EnumSet<?>) value).clone();
+    }
+
+    // ======================
+    // Type classification
+    // ======================
+
+    private static Kind kindOf(Class<?> type) {
+        if (type.isArray()) return Kind.ARRAY;
+        if (Date.class.isAssignableFrom(type) || EnumSet.class.isAssignableFrom(type)) return Kind.SELF_CLONING;
+        if (isImmutable(type)) return Kind.IMMUTABLE;
+        if (Collection.class.isAssignableFrom(type)) return Kind.COLLECTION;
+        if (Map.class.isAssignableFrom(type)) return Kind.MAP;
+        // Internals of other JDK types are not accessible
+        if (!ReflectionUtil.isUserClass(type)) return Kind.SHARED;
+        // Final-field classes that can be instantiated empty are copied field by field, which keeps their cycles
+        if ((type.isRecord() || CONSTRUCTORS.get(type) == null) && ValueConstructor.of(type) != null) return Kind.VALUE;
+        return Kind.OBJECT;
+    }
+
+    private static boolean isImmutable(Class<?> type) {
+        return type.isPrimitive()
+                || ReflectionUtil.isPrimitiveOrWrapperOrString(type)
+                || Enum.class.isAssignableFrom(type)
+                || IMMUTABLE_TYPES.contains(type)
+                || type.getPackageName().equals("java.time");
+    }
+
+    private static MethodHandle constructorOf(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            if (!constructor.trySetAccessible()) return null;
+            return LOOKUP.unreflectConstructor(constructor).asType(FACTORY_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Object instantiate(MethodHandle constructor, Class<?> type) {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to instantiate " + type.getName(), e);
+        }
+    }
+
+    // ======================
+    // Clone plan
+    // ======================
+
+    private static final class ClonePlan {
+        private final Class<?> type;
+        private final MethodHandle constructor;
+        // Copies the primitive and immutable fields it can reach; null if generation failed
+        private final BiConsumer<Object, Object> direct;
+        // All other fields
+        private final FieldCopy[] fields;
+
+        private ClonePlan(Class<?> type) {
+            this.type = type;
+            this.constructor = CONSTRUCTORS.get(type);
+
+            List<Field> direct = new ArrayList<>();
+            List<FieldCopy> others = new ArrayList<>();
+            for (ClassUpdatePlan.FieldPlan field : ClassUpdatePlan.of(type).getCopyableFields()) {
+                Class<?> fieldType = field.field().getType();
+                // Declared immutable types are copied by reference without a runtime type check
+                boolean immutable = fieldType.isPrimitive() || KINDS.get(fieldType) == Kind.IMMUTABLE;
+                if (immutable && CopierGenerator.isDirectlyCopyable(type, field.field())) direct.add(field.field());
+                else others.add(new FieldCopy(field.accessor(), field.primitive(), immutable));
+            }
+
+            BiConsumer<Object, Object> copier = null;
+            if (!direct.isEmpty()) {
+                try {
+                    copier = CopierGenerator.generate(type, direct);
+                } catch (Throwable e) {
+                    log.debug("Generated copier not available for {}, using accessors", type.getName(), e);
+                    for (ClassUpdatePlan.FieldPlan field : ClassUpdatePlan.of(type).getCopyableFields()) {
+                        if (direct.contains(field.field())) others.add(new FieldCopy(field.accessor(), field.primitive(), true));
+                    }
+                }
+            }
+            this.direct = copier;
+            this.fields = others.toArray(new FieldCopy[0]);
+        }
+
+        Object instantiate() {
+            if (constructor == null) {
+                throw new IllegalArgumentException("Cannot clone " + type.getName() + ": no accessible no-arg constructor");
+            }
+            return EntityCloner.instantiate(constructor, type);
+        }
+    }
+
+    private record FieldCopy(FieldAccessor accessor, PrimitiveAccess primitive, boolean immutable) {
+
+        Object get(Object source) {
+            try {
+                return accessor.get(source);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Failed to read field: " + accessor.getName(), e);
+            }
+        }
+
+        void set(Object target, Object value) {
+            try {
+                accessor.set(target, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Failed to write field: " + accessor.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldKind;
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldPlan;
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+
+import java.io.Serial;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Read-only counterpart of the {@link UpdatePlan} engine: walks target and updates with the same field plans,
+ * skip/include paths, converters and conditions, and records what an update would change.
+ * <p>
+ * Nested objects that are the same reference on both sides are skipped without descending. Pairs already diffed
+ * are tracked by identity in a {@link VisitTracker}, as in {@link UpdatePlan#apply}: a sub-object shared by two
+ * fields is reported once, under the first path, and back-references in cyclic graphs are not entered again.
+ * With a pool, the nested objects of the upper {@value #PARALLEL_DEPTH} levels are diffed as separate fork-join
+ * tasks into their own reports, which are then appended in field order. Each task tracks its own visits, seeded
+ * with its ancestors, so a sub-object shared across two forked subtrees is reported under both paths.
+ */
+final class EntityDiff {
+
+    /**
+     * Nesting levels whose subtrees are forked; deeper objects are diffed on the forking thread.
+     */
+    static final int PARALLEL_DEPTH = 3;
+
+    private final UpdatePlan<?> plan;
+    private final ForkJoinPool pool;
+
+    EntityDiff(UpdatePlan<?> plan, ForkJoinPool pool) {
+        this.plan = plan;
+        this.pool = pool;
+    }
+
+    UpdateReport diff(Object target, Object updates) {
+        UpdateReport report = new UpdateReport();
+        if (target != null && updates != null) {
+            Node root = new Node(target, updates, "", 0, plan.rootInclude(), plan.rootSkip(), null);
+            if (pool != null) {
+                pool.invoke(new DiffTask(root, report));
+            } else {
+                VisitTracker visits = VisitTracker.acquire(target, updates, root.include, root.skip);
+                try {
+                    diffObject(root, report, null, visits);
+                } finally {
+                    visits.release();
+                }
+            }
+        }
+        if (plan.fieldMapper != null) report.setFieldMapper(plan.fieldMapper);
+        return report;
+    }
+
+    /**
+     * One pair of objects; {@code parent} links back to the root, which forked tasks use to seed their visits.
+     */
+    private record Node(Object target, Object updates, String path, int depth,
+                        PathTrie.Node include, PathTrie.Node skip, Node parent) {
+    }
+
+    /**
+     * Diffs the fields of one object pair. With a task list, nested objects are collected as tasks instead of
+     * being diffed in place, and changes after each of them go into a fresh segment report.
+     */
+    private void diffObject(Node node, UpdateReport report, List<Object> segments, VisitTracker visits) {
+        if (node.depth > plan.maxDepth) return;
+
+        ClassUpdatePlan classPlan = ClassUpdatePlan.of(node.target.getClass());
+        UpdateReport segment = report;
+        for (FieldPlan fieldPlan : classPlan.getUpdatableFields()) {
+            if (plan.shouldSkip(fieldPlan.name(), fieldPlan.kind(), node.include, node.skip)) continue;
+
+            Node child = diffField(fieldPlan, node, segment, visits);
+            if (child == null) continue;
+
+            if (segments == null) {
+                VisitTracker.Visit enclosing = visits.push();
+                diffObject(child, segment, null, visits);
+                visits.pop(enclosing);
+            } else {
+                segments.add(new DiffTask(child, new UpdateReport()));
+                segment = new UpdateReport();
+                segments.add(segment);
+            }
+        }
+    }
+
+    /**
+     * Records the change of a simple, collection or map field, or returns the nested pair to descend into.
+     */
+    private Node diffField(FieldPlan fieldPlan, Node node, UpdateReport report, VisitTracker visits) {
+        String name = fieldPlan.name();
+        if (fieldPlan.primitive() != null && plan.isPlain(name)) {
+            fieldPlan.primitive().copy(node.target, node.updates, report, node.path, false);
+            return null;
+        }
+
+        FieldAccessor accessor = fieldPlan.accessor();
+        String fieldPath = UpdatePlan.buildFieldPath(node.path, name);
+
+        Object currentValue;
+        Object newValue;
+        try {
+            currentValue = accessor.get(node.target);
+            newValue = accessor.get(node.updates);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to diff field: " + fieldPath, e);
+        }
+
+        newValue = plan.applyConverters(fieldPlan.field(), newValue);
+        if (plan.skipNulls && newValue == null) return null;
+        if (!plan.passesUpdateCondition(name, newValue)) return null;
+
+        if (fieldPlan.kind() == FieldKind.SIMPLE) {
+            if (!Objects.equals(currentValue, newValue)) report.addChange(fieldPath, currentValue, newValue);
+            return null;
+        }
+        if (newValue instanceof Collection<?> newCol) {
+            if (fieldPlan.kind() == FieldKind.MAP || Objects.equals(currentValue, newCol)) return null;
+            // Copies, so that the report does not follow later changes to either object
+            report.addCollectionChange(fieldPath, currentValue instanceof Collection<?> oldCol ? UpdatePlan.copyOf(oldCol) : null,
+                    UpdatePlan.copyOf(newCol));
+            return null;
+        }
+        if (newValue instanceof Map<?, ?> newMap) {
+            if (fieldPlan.kind() == FieldKind.COLLECTION || Objects.equals(currentValue, newMap)) return null;
+            report.addMapChange(fieldPath, currentValue instanceof Map<?, ?> oldMap ? new LinkedHashMap<>(oldMap) : null,
+                    new LinkedHashMap<>(newMap));
+            return null;
+        }
+        if (fieldPlan.kind() != FieldKind.NESTED || newValue == null) return null;
+
+        // Unchanged subtree
+        if (currentValue == newValue) return null;
+
+        PathTrie.Node include = UpdatePlan.childCursor(node.include, name);
+        PathTrie.Node skip = UpdatePlan.childCursor(node.skip, name);
+        if (currentValue == null) {
+            // Apply would link back to the enclosing target paired with this object; the link is not a field change
+            Object linked = visits.enclosingTarget(newValue, include, skip);
+            if (linked != null && accessor.getType().isInstance(linked)) return null;
+        }
+
+        // A missing nested object would be created, so compare against a fresh instance
+        Object current = currentValue != null ? currentValue : UpdatePlan.newInstance(accessor, fieldPath);
+
+        // Shared sub-object already diffed from the same source, or a back-reference
+        if (!visits.enter(current, newValue, include, skip)) return null;
+        return new Node(current, newValue, fieldPath, node.depth + 1, include, skip, node);
+    }
+
+    private final class DiffTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final UpdateReport report;
+
+        private DiffTask(Node node, UpdateReport report) {
+            this.node = node;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            List<Object> segments = node.depth >= PARALLEL_DEPTH ? null : new ArrayList<>();
+            // Released before the subtasks run, since this thread may execute other tasks meanwhile
+            List<Node> path = new ArrayList<>();
+            for (Node ancestor = node; ancestor != null; ancestor = ancestor.parent) {
+                path.add(ancestor);
+            }
+            Node root = path.get(path.size() - 1);
+            VisitTracker visits = VisitTracker.acquire(root.target, root.updates, root.include, root.skip);
+            try {
+                // Re-enter the pairs from the root down, so that back-references and cycles resolve as in apply
+                for (int i = path.size() - 2; i >= 0; i--) {
+                    Node ancestor = path.get(i);
+                    visits.enter(ancestor.target, ancestor.updates, ancestor.include, ancestor.skip);
+                    visits.push();
+                }
+                diffObject(node, report, segments, visits);
+            } finally {
+                visits.release();
+            }
+            if (segments == null) return;
+
+            List<DiffTask> tasks = new ArrayList<>();
+            for (Object segment : segments) {
+                if (segment instanceof DiffTask task) tasks.add(task);
+            }
+            invokeAll(tasks);
+
+            for (Object segment : segments) {
+                report.addAll(segment instanceof DiffTask task ? task.report : (UpdateReport) segment);
+            }
+        }
+    }
+}
@@ -1,26 +1,90 @@
 package mn.astvision.commontools.entityupdater;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.annotation.Transient;
+import mn.astvision.commontools.entityupdater.interfaces.GeneratedUpdater;
+import org.springframework.data.util.Pair;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 
-import static mn.astvision.commontools.entityupdater.ReflectionUtil.*;
+import static mn.astvision.commontools.entityupdater.ReflectionUtil.createFieldMapper;
 
 
 @Slf4j
 public class EntityUpdater {
 
-    private static final Set<String> SYSTEM_FIELDS = Set.of("id", "createdBy", "modifiedBy", "createdDate", "modifiedDate");
+    static final Set<String> SYSTEM_FIELDS = Set.of("id", "createdBy", "modifiedBy", "createdDate", "modifiedDate");
+
+    /**
+     * Number of updates of a type after which a specialized updater is generated for it; negative disables generation.
+     */
+    private static volatile int specializationThreshold = 1_000;
 
     public static <T> UpdateBuilder<T> builder(T target, T updates) {
         return new UpdateBuilder<>(target, updates);
     }
 
+    /**
+     * Starts a reusable, thread-safe update plan for the given type; see {@link UpdatePlan}.
+     */
+    public static <T> UpdatePlan.Builder<T> plan(Class<T> type) {
+        return UpdatePlan.builder(type);
+    }
+
+    /**
+     * Applies a PATCH payload with the default plan for the target's type; see {@link UpdatePlan#applyPatch(Object, Map)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> UpdateReport patch(T target, Map<String, ?> patch) {
+        return plan((Class<T>) target.getClass()).compile().applyPatch(target, patch);
+    }
+
+    /**
+     * Reports what an update of {@code target} with {@code updates} would change, without modifying either;
+     * see {@link UpdatePlan#diff(Object, Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> UpdateReport diff(T target, T updates) {
+        return plan((Class<T>) target.getClass()).compile().diff(target, updates);
+    }
+
+    /**
+     * Three-way merge of two edits of {@code base} with the default plan for its type;
+     * see {@link UpdatePlan#merge(Object, Object, Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> MergeResult<T> merge(T base, T ours, T theirs) {
+        return plan((Class<T>) base.getClass()).compile().merge(base, ours, theirs);
+    }
+
+    /**
+     * Applies each {@code (target, updates)} pair with the plan, in parallel on the common fork-join pool.
+     * Reports are returned in input order; see {@link BulkUpdateWriter} to persist them.
+     */
+    public static <T> List<UpdateReport> updateAll(List<Pair<T, T>> pairs, UpdatePlan<T> plan) {
+        return plan.applyAll(pairs, ForkJoinPool.commonPool());
+    }
+
+    public static <T> List<UpdateReport> updateAll(List<Pair<T, T>> pairs, UpdatePlan<T> plan, ForkJoinPool pool) {
+        return plan.applyAll(pairs, pool);
+    }
+
+    public static int getSpecializationThreshold() {
+        return specializationThreshold;
+    }
+
+    public static void setSpecializationThreshold(int threshold) {
+        specializationThreshold = threshold;
+    }
+
     // ======================
     // Update Builder
     // ======================
@@ -32,6 +96,7 @@ public class EntityUpdater {
 
         private boolean skipNulls = true;
         private int maxDepth = Integer.MAX_VALUE;
+        private boolean iterative;
 
         private final Set<String> skipFields = new HashSet<>();
         private Set<String> includeFields = null;
@@ -40,6 +105,14 @@ public class EntityUpdater {
         private List<FieldConverter> converters = new ArrayList<>();
         private Map<String, Predicate<Object>> updateConditions = new HashMap<>();
         private Map<String, FieldUpdateStrategy> fieldStrategies = new HashMap<>();
+        private ConverterRegistry converterRegistry;
+
+        // Compiled on first use; every builder method that changes the configuration drops it
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private UpdatePlan<T> plan;
 
         private UpdateBuilder(T target, T updates) {
             this.target = target;
@@ -48,227 +121,168 @@ public class EntityUpdater {
 
         public UpdateBuilder<T> skipNulls(boolean skipNulls) {
             this.skipNulls = skipNulls;
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> maxDepth(int maxDepth) {
             this.maxDepth = maxDepth;
+            plan = null;
+            return this;
+        }
+
+        public UpdateBuilder<T> iterative(boolean iterative) {
+            this.iterative = iterative;
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> skipFields(String... fields) {
             if (fields != null) this.skipFields.addAll(Arrays.asList(fields));
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> includeFields(String... fields) {
             if (fields != null) this.includeFields = new HashSet<>(Arrays.asList(fields));
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> fieldMapper(Map<String, String> mapper) {
             this.fieldMapper = mapper;
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> resolveFieldMapper() {
-            this.fieldMapper = createFieldMapper(target.getClass());
+            GeneratedUpdater<Object> generated = GeneratedUpdaters.find(target.getClass());
+            this.fieldMapper = generated != null ? generated.fieldLabels() : createFieldMapper(target.getClass());
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> converters(List<FieldConverter> converters) {
             this.converters = converters;
+            plan = null;
+            return this;
+        }
+
+        public UpdateBuilder<T> converterRegistry(ConverterRegistry registry) {
+            this.converterRegistry = registry;
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> updateConditions(Map<String, Predicate<Object>> conditions) {
             this.updateConditions = conditions;
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> fieldStrategies(Map<String, FieldUpdateStrategy> strategies) {
             this.fieldStrategies = strategies;
+            plan = null;
             return this;
         }
 
-
         public UpdateBuilder<T> registerConverter(FieldConverter converter) {
             if (converter != null) converters.add(converter);
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> updateCondition(String field, Predicate<Object> condition) {
             if (field != null && condition != null) updateConditions.put(field, condition);
+            plan = null;
             return this;
         }
 
         public UpdateBuilder<T> fieldStrategy(String field, FieldUpdateStrategy strategy) {
             if (field != null && strategy != null) fieldStrategies.put(field, strategy);
+            plan = null;
             return this;
         }
 
-        // ======================
-        // Core: update with report
-        // ======================
-
-        public UpdateReport updateWithReport() {
-            UpdateReport report = new UpdateReport();
-            if (target == null || updates == null) return report;
-            updateObject(target, updates, report, "", 0);
-            if (fieldMapper != null) report.setFieldMapper(fieldMapper);
-            return report;
-        }
-
-        public void update() {
-            UpdateReport dummyReport = new UpdateReport();
-            updateObject(target, updates, dummyReport, "", 0);
+        // Setters Lombok would generate, written out so that they also drop the compiled plan
+        public void setSkipNulls(boolean skipNulls) {
+            skipNulls(skipNulls);
         }
 
-        // ======================
-        // Recursive field update
-        // ======================
-        private void updateObject(Object targetObj, Object updatesObj, UpdateReport report, String parentField, int depth) {
-            if (targetObj == null || updatesObj == null || depth > maxDepth) return;
-
-            for (Field field : getAllFields(targetObj.getClass())) {
-                field.setAccessible(true);
-
-                if (shouldSkip(field, parentField)) continue;
-
-                try {
-                    Object currentValue = field.get(targetObj);
-                    Object newValue = field.get(updatesObj);
-
-                    newValue = applyConverters(field.getName(), newValue);
-
-                    if (skipNulls && newValue == null) continue;
-                    if (!passesUpdateCondition(field.getName(), newValue)) continue;
-                    if (applyFieldStrategyIfExists(field, targetObj, newValue, report, parentField)) continue;
-
-                    String fieldPath = buildFieldPath(parentField, field.getName());
-
-                    // Dispatch to specialized update handlers
-                    if (handleCollectionField(field, targetObj, currentValue, newValue, report, fieldPath)) continue;
-                    if (handleMapField(field, targetObj, currentValue, newValue, report, fieldPath)) continue;
-                    if (handlePrimitiveOrStringField(field, targetObj, currentValue, newValue, report, fieldPath))
-                        continue;
-
-                    // Nested POJO
-                    updateNestedField(field, targetObj, currentValue, newValue, report, fieldPath, depth);
-
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException("Failed to update field: " + field.getName(), e);
-                }
-            }
+        public void setMaxDepth(int maxDepth) {
+            maxDepth(maxDepth);
         }
 
-
-        // ---------------------
-// Helper methods
-// ---------------------
-
-        private Object applyConverters(String fieldName, Object value) {
-            Object result = value;
-            try {
-                for (FieldConverter converter : converters) {
-                    result = converter.convert(fieldName, result);
-                }
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to apply converters for field: " + fieldName, e);
-            }
-
-            return result;
+        public void setIterative(boolean iterative) {
+            iterative(iterative);
         }
 
-        private boolean passesUpdateCondition(String fieldName, Object newValue) {
-            Predicate<Object> condition = updateConditions.get(fieldName);
-            return condition == null || condition.test(newValue);
+        public void setIncludeFields(Set<String> includeFields) {
+            this.includeFields = includeFields;
+            plan = null;
         }
 
-        private boolean applyFieldStrategyIfExists(Field field, Object targetObj, Object newValue, UpdateReport report, String parentField) throws IllegalAccessException {
-            FieldUpdateStrategy strategy = fieldStrategies.get(field.getName());
-            if (strategy != null) {
-                strategy.apply(targetObj, field, newValue, report, parentField);
-                return true;
-            }
-            return false;
+        public void setFieldMapper(Map<String, String> fieldMapper) {
+            fieldMapper(fieldMapper);
         }
 
-        private String buildFieldPath(String parentField, String fieldName) {
-            return parentField.isEmpty() ? fieldName : parentField + "." + fieldName;
+        public void setConverters(List<FieldConverter> converters) {
+            converters(converters);
         }
 
-        private boolean handleCollectionField(Field field, Object targetObj, Object currentValue, Object newValue, UpdateReport report, String fieldPath) throws IllegalAccessException {
-            if (newValue instanceof Collection<?> newCol) {
-                Collection<?> oldCopy = currentValue instanceof Collection<?> ? new ArrayList<>((Collection<?>) currentValue) : null;
-                Collection<?> newCopy = new ArrayList<>(newCol);
-                field.set(targetObj, newCopy);
-                report.addCollectionChange(fieldPath, oldCopy, newCopy);
-                return true;
-            }
-            return false;
+        public void setUpdateConditions(Map<String, Predicate<Object>> updateConditions) {
+            updateConditions(updateConditions);
         }
 
-        private boolean handleMapField(Field field, Object targetObj, Object currentValue, Object newValue, UpdateReport report, String fieldPath) throws IllegalAccessException {
-            if (newValue instanceof Map<?, ?> newMap) {
-                Map<?, ?> oldCopy = currentValue instanceof Map<?, ?> ? new LinkedHashMap<>((Map<?, ?>) currentValue) : null;
-                Map<?, ?> newCopy = new LinkedHashMap<>(newMap);
-                field.set(targetObj, newCopy);
-                report.addMapChange(fieldPath, oldCopy, newCopy);
-                return true;
-            }
-            return false;
+        public void setFieldStrategies(Map<String, FieldUpdateStrategy> fieldStrategies) {
+            fieldStrategies(fieldStrategies);
         }
 
-        private boolean handlePrimitiveOrStringField(Field field, Object targetObj, Object currentValue, Object newValue, UpdateReport report, String fieldPath) throws IllegalAccessException {
-            Class<?> type = field.getType();
-            if (isPrimitiveOrWrapperOrString(type)) {
-                if (!Objects.equals(currentValue, newValue)) {
-                    field.set(targetObj, newValue);
-                    report.addChange(fieldPath, currentValue, newValue);
-                }
-                return true;
-            }
-            return false;
+        public void setConverterRegistry(ConverterRegistry converterRegistry) {
+            converterRegistry(converterRegistry);
         }
 
-        private void updateNestedField(Field field, Object parentObj, Object currentValue, Object newValue,
-                                       UpdateReport report, String fieldPath, int depth) throws IllegalAccessException {
-            if (newValue == null) return;
-
-            if (currentValue == null) {
-                // Create nested instance if null
-                try {
-                    currentValue = field.getType().getDeclaredConstructor().newInstance();
-                    field.set(parentObj, currentValue);
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to create instance for nested field: " + fieldPath, e);
-                }
-            }
+        // ======================
+        // Core: update with report
+        // ======================
 
-            // Recurse into nested object
-            updateObject(currentValue, newValue, report, fieldPath, depth + 1);
+        public UpdateReport updateWithReport() {
+            if (target == null || updates == null) return new UpdateReport();
+            return toPlan().apply(target, updates);
         }
 
+        /**
+         * Applies the updates without building a report; see {@link #updateChanged()} to learn whether anything changed.
+         */
+        public void update() {
+            updateChanged();
+        }
 
-        private boolean shouldSkip(Field field, String parentPath) {
-            // Fully qualified field path
-            String fullPath = parentPath == null || parentPath.isEmpty() ? field.getName() : parentPath + "." + field.getName();
-
-            // Skip transient, static final, system fields
-            if (field.isAnnotationPresent(Transient.class)) return true;
-            if (Modifier.isFinal(field.getModifiers()) && Modifier.isStatic(field.getModifiers())) return true;
-            if (SYSTEM_FIELDS.contains(field.getName())) return true;
-            if (skipFields.contains(field.getName())) return true;
+        /**
+         * Applies the updates without building a report.
+         *
+         * @return whether the target was modified
+         */
+        public boolean updateChanged() {
+            if (target == null || updates == null) return false;
+            return toPlan().update(target, updates);
+        }
 
-            if (includeFields != null && !includeFields.isEmpty()) {
-                boolean included = includeFields.stream().anyMatch(f -> f.equals(fullPath) || fullPath.startsWith(f + "."));
-                return !included;
+        /**
+         * Compiles the current configuration into a reusable {@link UpdatePlan} for the target's type. The plan is
+         * kept until the configuration changes through the builder; changes made directly to the collections
+         * returned by the getters are not seen by an already compiled plan.
+         */
+        @SuppressWarnings("unchecked")
+        public UpdatePlan<T> toPlan() {
+            UpdatePlan<T> compiled = plan;
+            if (compiled == null) {
+                compiled = new UpdatePlan<>((Class<T>) target.getClass(), skipNulls, maxDepth, iterative, skipFields,
+                        includeFields, fieldMapper, converters, updateConditions, fieldStrategies, converterRegistry);
+                plan = compiled;
             }
-
-            return false;
+            return compiled;
         }
-
     }
 
     // ======================
@@ -0,0 +1,220 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Factory for {@link FieldAccessor}s backed by cached {@link MethodHandle}s or
+ * {@link LambdaMetafactory}-generated getter/setter lambdas.
+ * <p>
+ * Accessors are created once per field by {@link ClassUpdatePlan} and reused for every update,
+ * avoiding the access checks of {@link Field#get}/{@link Field#set} on the hot path.
+ */
+public final class FieldAccessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private FieldAccessors() {
+    }
+
+    /**
+     * Resolves the accessor for a field: direct field handles when the field can be made accessible,
+     * otherwise the JavaBean/Lombok getter and setter (e.g. under restricted module access).
+     */
+    public static FieldAccessor of(Field field) {
+        if (field.trySetAccessible()) return forField(field);
+
+        FieldAccessor property = forProperty(field);
+        if (property != null) return property;
+
+        // Neither path works: surface the original access error
+        field.setAccessible(true);
+        return forField(field);
+    }
+
+    /**
+     * Accessor backed by field getter/setter {@link MethodHandle}s. The field must already be accessible.
+     */
+    public static FieldAccessor forField(Field field) {
+        try {
+            boolean isStatic = Modifier.isStatic(field.getModifiers());
+
+            MethodHandle getter = LOOKUP.unreflectGetter(field);
+            if (isStatic) getter = MethodHandles.dropArguments(getter, 0, Object.class);
+
+            MethodHandle setter = null;
+            try {
+                setter = LOOKUP.unreflectSetter(field);
+                if (isStatic) setter = MethodHandles.dropArguments(setter, 0, Object.class);
+                setter = setter.asType(SETTER_TYPE);
+            } catch (IllegalAccessException ignored) {
+                // static final or record component: read-only
+            }
+
+            return new MethodHandleAccessor(field.getName(), field.getType(), getter.asType(GETTER_TYPE), setter);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to create accessor for field: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * Accessor backed by the public JavaBean/Lombok getter and setter of a field, compiled to lambdas
+     * through {@link LambdaMetafactory}. Returns {@code null} when the field has no getter.
+     */
+    public static FieldAccessor forProperty(Field field) {
+        Class<?> owner = field.getDeclaringClass();
+        Method getter = findGetter(owner, field);
+        if (getter == null) return null;
+        Method setter = findSetter(owner, field);
+
+        try {
+            MethodHandles.Lookup lookup = privateLookup(owner);
+            return new LambdaAccessor(field.getName(), field.getType(),
+                    getterLambda(lookup, getter),
+                    setter != null ? setterLambda(lookup, setter) : null);
+        } catch (Throwable e) {
+            // Lambda generation not permitted for this class: fall back to plain method handles
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                return new MethodHandleAccessor(field.getName(), field.getType(),
+                        lookup.unreflect(getter).asType(GETTER_TYPE),
+                        setter != null ? lookup.unreflect(setter).asType(SETTER_TYPE) : null);
+            } catch (IllegalAccessException ex) {
+                return null;
+            }
+        }
+    }
+
+    // ======================
+    // Property resolution
+    // ======================
+
+    private static Method findGetter(Class<?> owner, Field field) {
+        String suffix = capitalize(field.getName());
+        Method getter = findPublicMethod(owner, "get" + suffix);
+        if (getter == null && (field.getType() == boolean.class || field.getType() == Boolean.class)) {
+            getter = findPublicMethod(owner, "is" + suffix);
+        }
+        return getter != null && getter.getReturnType() == field.getType() ? getter : null;
+    }
+
+    private static Method findSetter(Class<?> owner, Field field) {
+        return findPublicMethod(owner, "set" + capitalize(field.getName()), field.getType());
+    }
+
+    private static Method findPublicMethod(Class<?> owner, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = owner.getMethod(name, parameterTypes);
+            return Modifier.isStatic(method.getModifiers()) ? null : method;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static String capitalize(String name) {
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static MethodHandles.Lookup privateLookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, LOOKUP);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> getterLambda(MethodHandles.Lookup lookup, Method getter) throws Throwable {
+        MethodHandle handle = lookup.unreflect(getter);
+        CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class),
+                handle,
+                MethodType.methodType(MethodType.methodType(getter.getReturnType()).wrap().returnType(), getter.getDeclaringClass()));
+        return (Function<Object, Object>) site.getTarget().invokeExact();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> setterLambda(MethodHandles.Lookup lookup, Method setter) throws Throwable {
+        MethodHandle handle = lookup.unreflect(setter);
+        Class<?> valueType = MethodType.methodType(setter.getParameterTypes()[0]).wrap().returnType();
+        CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class),
+                handle,
+                MethodType.methodType(void.class, setter.getDeclaringClass(), valueType));
+        return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+    }
+
+    // ======================
+    // Implementations
+    // ======================
+
+    private record MethodHandleAccessor(String name, Class<?> type, MethodHandle getter,
+                                        MethodHandle setter) implements FieldAccessor {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to read field: " + name, e);
+            }
+        }
+
+        @Override
+        public void set(Object target, Object value) throws IllegalAccessException {
+            if (setter == null) throw new IllegalAccessException("Field is read-only: " + name);
+            if (value == null && type.isPrimitive())
+                throw new IllegalArgumentException("Can not set primitive field " + name + " to null");
+            try {
+                setter.invokeExact(target, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to write field: " + name, e);
+            }
+        }
+    }
+
+    private record LambdaAccessor(String name, Class<?> type, Function<Object, Object> getter,
+                                  BiConsumer<Object, Object> setter) implements FieldAccessor {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object get(Object target) {
+            return getter.apply(target);
+        }
+
+        @Override
+        public void set(Object target, Object value) throws IllegalAccessException {
+            if (setter == null) throw new IllegalAccessException("Property has no setter: " + name);
+            if (value == null && type.isPrimitive())
+                throw new IllegalArgumentException("Can not set primitive property " + name + " to null");
+            setter.accept(target, value);
+        }
+    }
+}
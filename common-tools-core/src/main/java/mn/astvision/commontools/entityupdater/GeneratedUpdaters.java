@@ -0,0 +1,81 @@
+package mn.astvision.commontools.entityupdater;
+
+import lombok.extern.slf4j.Slf4j;
+import mn.astvision.commontools.entityupdater.annotations.GenerateUpdater;
+import mn.astvision.commontools.entityupdater.interfaces.GeneratedUpdater;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Discovers updaters generated at compile time for {@link GenerateUpdater} types.
+ * <p>
+ * A type {@code com.acme.Order} maps to {@code com.acme.OrderUpdater}; nested types are flattened with
+ * underscores ({@code Outer.Inner} maps to {@code Outer_InnerUpdater}).
+ */
+@Slf4j
+public final class GeneratedUpdaters {
+
+    // Looked up only for fields with a strategy, which receives the Field; never made accessible here
+    private static final ClassValue<Map<String, Field>> DECLARED_FIELDS = new ClassValue<>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            Map<String, Field> fields = new HashMap<>();
+            for (Field field : ReflectionUtil.getAllFields(type)) {
+                fields.putIfAbsent(field.getName(), field);
+            }
+            return Map.copyOf(fields);
+        }
+    };
+
+    private static final ClassValue<Optional<GeneratedUpdater<Object>>> UPDATERS = new ClassValue<>() {
+        @Override
+        protected Optional<GeneratedUpdater<Object>> computeValue(Class<?> type) {
+            return Optional.ofNullable(load(type));
+        }
+    };
+
+    private GeneratedUpdaters() {
+    }
+
+    /**
+     * Generated updater for the exact type, or {@code null} if none was generated.
+     */
+    public static GeneratedUpdater<Object> find(Class<?> type) {
+        return UPDATERS.get(type).orElse(null);
+    }
+
+    /**
+     * Field of the type or a superclass with the given name, nearest declaration first, or {@code null}.
+     */
+    static Field declaredField(Class<?> type, String name) {
+        return DECLARED_FIELDS.get(type).get(name);
+    }
+
+    public static String updaterClassName(Class<?> type) {
+        String packageName = type.getPackageName();
+        String simpleName = packageName.isEmpty() ? type.getName() : type.getName().substring(packageName.length() + 1);
+        String updaterName = simpleName.replace('$', '_') + "Updater";
+        return packageName.isEmpty() ? updaterName : packageName + "." + updaterName;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GeneratedUpdater<Object> load(Class<?> type) {
+        if (!type.isAnnotationPresent(GenerateUpdater.class)) return null;
+
+        String className = updaterClassName(type);
+        try {
+            Class<?> updaterClass = Class.forName(className, true, type.getClassLoader());
+            return (GeneratedUpdater<Object>) updaterClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            log.warn("{} is annotated with @GenerateUpdater but {} was not generated; is common-tools-processor configured?",
+                    type.getName(), className);
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.warn("Failed to instantiate generated updater {}", className, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package mn.astvision.commontools.entityupdater;
+
+import java.util.*;
+
+/**
+ * Ordered diff of two lists as an insert/delete/move edit script.
+ * <p>
+ * Common prefix and suffix are trimmed first; the rest is diffed with Myers' O((N+M)D) algorithm,
+ * recursing on the middle snake so that memory stays linear. Deleted and inserted elements that are
+ * equal are then paired up as moves.
+ */
+public final class ListDiff {
+
+    public enum Type {INSERT, DELETE, MOVE}
+
+    /**
+     * One edit. {@code oldIndex} is the position in the old list ({@code -1} for inserts),
+     * {@code newIndex} the position in the new list ({@code -1} for deletes).
+     */
+    public record Edit(Type type, int oldIndex, int newIndex, Object value) {
+        @Override
+        public String toString() {
+            return switch (type) {
+                case INSERT -> "+" + newIndex + ": " + value;
+                case DELETE -> "-" + oldIndex + ": " + value;
+                case MOVE -> oldIndex + "->" + newIndex + ": " + value;
+            };
+        }
+    }
+
+    private final List<?> oldList;
+    private final List<?> newList;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+
+    private ListDiff(List<?> oldList, List<?> newList) {
+        this.oldList = oldList;
+        this.newList = newList;
+        this.deleted = new boolean[oldList.size()];
+        this.inserted = new boolean[newList.size()];
+    }
+
+    public static List<Edit> diff(List<?> oldList, List<?> newList) {
+        List<?> a = oldList != null ? oldList : List.of();
+        List<?> b = newList != null ? newList : List.of();
+        if (a.isEmpty() && b.isEmpty()) return List.of();
+
+        // Indexed access is assumed below
+        if (!(a instanceof RandomAccess)) a = new ArrayList<>(a);
+        if (!(b instanceof RandomAccess)) b = new ArrayList<>(b);
+
+        ListDiff diff = new ListDiff(a, b);
+        diff.compare(0, a.size(), 0, b.size());
+        return diff.edits();
+    }
+
+    // ======================
+    // Myers diff
+    // ======================
+
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        // Trim common prefix and suffix
+        while (aLo < aHi && bLo < bHi && equal(aLo, bLo)) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && equal(aHi - 1, bHi - 1)) {
+            aHi--;
+            bHi--;
+        }
+
+        if (aLo == aHi) {
+            Arrays.fill(inserted, bLo, bHi, true);
+            return;
+        }
+        if (bLo == bHi) {
+            Arrays.fill(deleted, aLo, aHi, true);
+            return;
+        }
+
+        bisect(aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * Finds the middle snake of the shortest edit path and recurses on both halves.
+     */
+    private void bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        int delta = n - m;
+        // With an odd delta the paths meet while extending forward, otherwise while extending backward
+        boolean front = (delta & 1) != 0;
+        int k1Start = 0, k1End = 0, k2Start = 0, k2End = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1 = k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])
+                        ? forward[k1Offset + 1]
+                        : forward[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && equal(aLo + x1, bLo + y1)) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1Offset] = x1;
+
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1 && x1 >= n - backward[k2Offset]) {
+                        split(aLo, aHi, bLo, bHi, x1, y1);
+                        return;
+                    }
+                }
+            }
+
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2 = k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])
+                        ? backward[k2Offset + 1]
+                        : backward[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && equal(aHi - 1 - x2, bHi - 1 - y2)) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2Offset] = x2;
+
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            split(aLo, aHi, bLo, bHi, x1, y1);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        // No common element
+        Arrays.fill(deleted, aLo, aHi, true);
+        Arrays.fill(inserted, bLo, bHi, true);
+    }
+
+    private void split(int aLo, int aHi, int bLo, int bHi, int x, int y) {
+        compare(aLo, aLo + x, bLo, bLo + y);
+        compare(aLo + x, aHi, bLo + y, bHi);
+    }
+
+    private boolean equal(int oldIndex, int newIndex) {
+        return Objects.equals(oldList.get(oldIndex), newList.get(newIndex));
+    }
+
+    // ======================
+    // Edit script
+    // ======================
+
+    private List<Edit> edits() {
+        // Deleted elements that reappear as insertions become moves; only changed elements are hashed
+        Map<Object, Deque<Integer>> deletedByValue = new HashMap<>();
+        for (int i = 0; i < deleted.length; i++) {
+            if (deleted[i]) deletedByValue.computeIfAbsent(oldList.get(i), v -> new ArrayDeque<>()).add(i);
+        }
+        boolean[] moved = new boolean[deleted.length];
+        int[] moveSource = new int[inserted.length];
+        for (int j = 0; j < inserted.length; j++) {
+            if (!inserted[j]) continue;
+            Deque<Integer> sources = deletedByValue.get(newList.get(j));
+            if (sources != null && !sources.isEmpty()) {
+                int i = sources.poll();
+                moved[i] = true;
+                moveSource[j] = i + 1;
+            }
+        }
+
+        // Walk both lists in step so that edits come out in document order, deletes before inserts
+        List<Edit> edits = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && deleted[i]) {
+                if (!moved[i]) edits.add(new Edit(Type.DELETE, i, -1, oldList.get(i)));
+                i++;
+            } else if (j < inserted.length && inserted[j]) {
+                edits.add(moveSource[j] > 0
+                        ? new Edit(Type.MOVE, moveSource[j] - 1, j, newList.get(j))
+                        : new Edit(Type.INSERT, -1, j, newList.get(j)));
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return edits;
+    }
+}
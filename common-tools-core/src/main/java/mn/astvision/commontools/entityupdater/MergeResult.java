@@ -0,0 +1,23 @@
+package mn.astvision.commontools.entityupdater;
+
+import java.util.List;
+
+/**
+ * Outcome of a three-way merge; see {@link UpdatePlan#merge(Object, Object, Object)}.
+ *
+ * @param merged    copy of ours with their non-conflicting changes applied; conflicting fields keep our value
+ * @param conflicts fields that both sides changed to different values, in field order
+ * @param changes   how the merged entity differs from theirs, i.e. the update to apply to their document
+ */
+public record MergeResult<T>(T merged, List<Conflict> conflicts, UpdateReport changes) {
+
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
+    }
+
+    /**
+     * A field, or a map entry ({@code "field.key"}), changed on both sides.
+     */
+    public record Conflict(String path, Object base, Object ours, Object theirs) {
+    }
+}
@@ -0,0 +1,95 @@
+package mn.astvision.commontools.entityupdater;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Optimistic saves of entities with a {@code @Version} property that merge concurrent edits instead of failing.
+ * <p>
+ * The changes of {@code ours} relative to {@code base} (the entity as it was loaded) are written with one
+ * {@code findAndModify} conditioned on the loaded version, which it increments. If another writer got there first,
+ * the current document is loaded and merged with {@link UpdatePlan#merge}; when the edits touch different fields,
+ * the merged changes are written conditioned on the new version, otherwise nothing is written and the conflicts
+ * are returned.
+ * <pre>{@code
+ * Citizen base = mongoTemplate.findById(id, Citizen.class);
+ * Citizen ours = EntityCloner.deepClone(base);
+ * ours.setPhone("99112233");
+ *
+ * MergeResult<Citizen> result = MergeWriter.save(mongoTemplate, base, ours);
+ * if (result.hasConflicts()) ...   // nothing written
+ * Citizen saved = result.merged(); // stored document, including concurrent changes
+ * }</pre>
+ */
+@Slf4j
+public final class MergeWriter {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private MergeWriter() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> MergeResult<T> save(MongoTemplate template, T base, T ours) {
+        Class<T> type = (Class<T>) ours.getClass();
+        MongoPersistentProperty version = versionProperty(template, type);
+        return save(template, EntityUpdater.plan(type).skipFields(version.getName()).compile(), base, ours, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param plan        merge configuration; it must not touch the version property
+     * @param maxAttempts number of conditional writes before giving up
+     * @return on success the stored entity and the written changes; with conflicts the local merge, unsaved
+     * @throws OptimisticLockingFailureException if the document was deleted, or modified on every attempt
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> MergeResult<T> save(MongoTemplate template, UpdatePlan<T> plan, T base, T ours, int maxAttempts) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("Max attempts must be positive: " + maxAttempts);
+
+        Class<T> type = (Class<T>) ours.getClass();
+        MongoPersistentEntity<?> entity = template.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+        MongoPersistentProperty version = versionProperty(template, type);
+        Object id = entity.getIdentifierAccessor(ours).getRequiredIdentifier();
+
+        // The first write is a merge against an unchanged document, i.e. our own changes
+        T theirs = base;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            MergeResult<T> result = plan.merge(base, ours, theirs);
+            if (result.hasConflicts() || result.changes().isEmpty()) return result;
+
+            Update update = result.changes().toMongoUpdate();
+            if (update.modifies(version.getName())) {
+                throw new IllegalArgumentException("Merge plan must not update the version property: " + version.getName());
+            }
+            update.inc(version.getName(), 1);
+
+            Object expected = entity.getPropertyAccessor(theirs).getProperty(version);
+            Query query = Query.query(Criteria.where("_id").is(id).and(version.getName()).is(expected));
+            T saved = template.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), type);
+            if (saved != null) return new MergeResult<>(saved, result.conflicts(), result.changes());
+
+            theirs = template.findById(id, type);
+            if (theirs == null) {
+                throw new OptimisticLockingFailureException("Cannot save " + type.getName() + " " + id + ": document was deleted");
+            }
+            log.debug("Concurrent change of {} {} at version {}, merging (attempt {})", type.getSimpleName(), id, expected, attempt);
+        }
+        throw new OptimisticLockingFailureException("Cannot save " + type.getName() + " " + id + ": modified concurrently "
+                + maxAttempts + " times");
+    }
+
+    private static MongoPersistentProperty versionProperty(MongoTemplate template, Class<?> type) {
+        MongoPersistentEntity<?> entity = template.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+        if (!entity.hasVersionProperty()) {
+            throw new IllegalArgumentException("Merging saves need a @Version property: " + type.getName());
+        }
+        return entity.getRequiredVersionProperty();
+    }
+}
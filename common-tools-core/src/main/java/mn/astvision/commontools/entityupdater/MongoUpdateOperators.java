@@ -0,0 +1,246 @@
+package mn.astvision.commontools.entityupdater;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Turns collection and map changes into the smallest Mongo update operators that reproduce them.
+ * <p>
+ * MongoDB rejects two operators on the same path in one update, so each field gets exactly one shape:
+ * <ul>
+ *     <li>list insertion run: {@code $push} with {@code $each} (and {@code $position} unless appending)</li>
+ *     <li>list deletions: {@code $pullAll} by value</li>
+ *     <li>same-length list: positional {@code $set} on {@code field.<index>}</li>
+ *     <li>set additions / removals: {@code $addToSet} with {@code $each} / {@code $pullAll}</li>
+ *     <li>map entries: {@code $set} / {@code $unset} on {@code field.<key>}</li>
+ * </ul>
+ * Anything else, or any diff touching at least as many elements as the new value holds, is written as a
+ * full {@code $set}.
+ */
+final class MongoUpdateOperators {
+
+    /**
+     * Driver default registry with {@link LocalDate}/{@link LocalDateTime} encoded in the system time zone,
+     * the same way {@link #toMongoValue(Object)} and Spring's converters store them.
+     */
+    static final CodecRegistry DEFAULT_REGISTRY = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new LocalDateCodec(), new LocalDateTimeCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    private MongoUpdateOperators() {
+    }
+
+    static void set(Update update, String field, Object newValue) {
+        if (newValue == null) update.unset(field);
+        else update.set(field, toMongoValue(newValue));
+    }
+
+    /**
+     * @param edits ordered edit script when both values are lists, otherwise {@code null}
+     */
+    static void collection(Update update, String field, Collection<?> oldValue, Collection<?> newValue, List<ListDiff.Edit> edits) {
+        if (oldValue == null || newValue == null || oldValue.isEmpty()) {
+            set(update, field, newValue);
+            return;
+        }
+
+        boolean written = newValue instanceof Set<?>
+                ? setDiff(update, field, oldValue, newValue)
+                : edits != null && listDiff(update, field, (List<?>) oldValue, (List<?>) newValue, edits);
+        if (!written) set(update, field, newValue);
+    }
+
+    static void map(Update update, String field, Map<?, ?> oldValue, Map<?, ?> newValue) {
+        if (oldValue == null || newValue == null || newValue.isEmpty() || !hasPathSafeKeys(oldValue) || !hasPathSafeKeys(newValue)) {
+            set(update, field, newValue);
+            return;
+        }
+
+        Map<String, Object> sets = new LinkedHashMap<>();
+        List<String> unsets = new ArrayList<>();
+        newValue.forEach((key, value) -> {
+            if (!oldValue.containsKey(key) || !Objects.equals(oldValue.get(key), value)) sets.put(field + "." + key, value);
+        });
+        for (Object key : oldValue.keySet()) {
+            if (!newValue.containsKey(key)) unsets.add(field + "." + key);
+        }
+
+        if (sets.size() + unsets.size() >= newValue.size()) {
+            set(update, field, newValue);
+            return;
+        }
+        // A key kept with a null value is stored as null, like in the full $set; only removed keys are unset
+        sets.forEach((path, value) -> update.set(path, toMongoValue(value)));
+        unsets.forEach(update::unset);
+    }
+
+    // ======================
+    // Lists & sets
+    // ======================
+
+    private static boolean listDiff(Update update, String field, List<?> oldList, List<?> newList, List<ListDiff.Edit> edits) {
+        int newSize = newList.size();
+        if (edits.isEmpty() || edits.size() >= newSize) return false;
+
+        EnumSet<ListDiff.Type> types = EnumSet.noneOf(ListDiff.Type.class);
+        edits.forEach(edit -> types.add(edit.type()));
+
+        // One contiguous run of insertions: $push, positioned unless it is an append
+        if (types.equals(EnumSet.of(ListDiff.Type.INSERT))) {
+            int position = edits.get(0).newIndex();
+            if (edits.get(edits.size() - 1).newIndex() - position != edits.size() - 1) return false;
+
+            Object[] values = toMongoValues(newList.subList(position, position + edits.size()));
+            if (position == oldList.size()) update.push(field).each(values);
+            else update.push(field).atPosition(position).each(values);
+            return true;
+        }
+
+        // Deletions only: $pullAll by value, as long as no other occurrence of a pulled value is kept
+        if (types.equals(EnumSet.of(ListDiff.Type.DELETE))) {
+            Set<Object> removed = new LinkedHashSet<>();
+            edits.forEach(edit -> removed.add(edit.value()));
+            for (Object element : newList) {
+                if (removed.contains(element)) return false;
+            }
+            pull(update, field, removed);
+            return true;
+        }
+
+        // Same length: positional updates
+        if (oldList.size() == newSize) {
+            List<Integer> changed = new ArrayList<>();
+            for (int i = 0; i < newSize; i++) {
+                if (!Objects.equals(oldList.get(i), newList.get(i))) changed.add(i);
+            }
+            if (changed.size() >= newSize) return false;
+            for (int i : changed) {
+                set(update, field + "." + i, newList.get(i));
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private static boolean setDiff(Update update, String field, Collection<?> oldValue, Collection<?> newValue) {
+        Set<Object> oldSet = new HashSet<>(oldValue);
+        Set<Object> newSet = new HashSet<>(newValue);
+
+        List<Object> added = new ArrayList<>();
+        for (Object element : newValue) {
+            if (!oldSet.contains(element)) added.add(element);
+        }
+        Set<Object> removed = new LinkedHashSet<>();
+        for (Object element : oldValue) {
+            if (!newSet.contains(element)) removed.add(element);
+        }
+
+        // Adding and removing would be two operators on the same path
+        if (!added.isEmpty() && !removed.isEmpty()) return false;
+        if (added.size() + removed.size() >= newValue.size() && !newValue.isEmpty()) return false;
+
+        if (!added.isEmpty()) update.addToSet(field).each(toMongoValues(added));
+        else if (!removed.isEmpty()) pull(update, field, removed);
+        return true;
+    }
+
+    /**
+     * Always {@code $pullAll}: {@code $pull} treats an embedded document as a query and would also remove
+     * elements it only partially matches.
+     */
+    private static void pull(Update update, String field, Collection<Object> values) {
+        update.pullAll(field, toMongoValues(values));
+    }
+
+    // ======================
+    // Helpers
+    // ======================
+
+    private static boolean hasPathSafeKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String name) || name.isEmpty() || name.indexOf('.') >= 0 || name.startsWith("$")) return false;
+        }
+        return true;
+    }
+
+    private static Object[] toMongoValues(Collection<?> values) {
+        Object[] result = new Object[values.size()];
+        int i = 0;
+        for (Object value : values) {
+            result[i++] = toMongoValue(value);
+        }
+        return result;
+    }
+
+    static Object toMongoValue(Object value) {
+        if (value instanceof LocalDate date)
+            return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        if (value instanceof LocalDateTime dateTime)
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        return value;
+    }
+
+    // ======================
+    // Direct BSON encoding
+    // ======================
+
+    @SuppressWarnings("unchecked")
+    static void writeValue(BsonWriter writer, Object value, CodecRegistry registry) {
+        if (value == null) {
+            writer.writeNull();
+            return;
+        }
+        Codec<Object> codec = (Codec<Object>) registry.get(value.getClass());
+        ENCODER_CONTEXT.encodeWithChildContext(codec, writer, value);
+    }
+
+    private static final class LocalDateCodec implements Codec<LocalDate> {
+        @Override
+        public void encode(BsonWriter writer, LocalDate value, EncoderContext encoderContext) {
+            writer.writeDateTime(value.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+
+        @Override
+        public LocalDate decode(BsonReader reader, DecoderContext decoderContext) {
+            return Instant.ofEpochMilli(reader.readDateTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+
+        @Override
+        public Class<LocalDate> getEncoderClass() {
+            return LocalDate.class;
+        }
+    }
+
+    private static final class LocalDateTimeCodec implements Codec<LocalDateTime> {
+        @Override
+        public void encode(BsonWriter writer, LocalDateTime value, EncoderContext encoderContext) {
+            writer.writeDateTime(value.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+
+        @Override
+        public LocalDateTime decode(BsonReader reader, DecoderContext decoderContext) {
+            return Instant.ofEpochMilli(reader.readDateTime()).atZone(ZoneId.systemDefault()).toLocalDateTime();
+        }
+
+        @Override
+        public Class<LocalDateTime> getEncoderClass() {
+            return LocalDateTime.class;
+        }
+    }
+}
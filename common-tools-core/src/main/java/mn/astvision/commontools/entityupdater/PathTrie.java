@@ -0,0 +1,83 @@
+package mn.astvision.commontools.entityupdater;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable trie of dotted field paths ({@code "address.city"}, {@code "address.*"}).
+ * <p>
+ * Updates walk the trie one segment per nesting level, so matching a field costs a single lookup
+ * instead of a scan over every configured path.
+ */
+final class PathTrie {
+
+    /**
+     * Cursor below a matched path: every descendant matches.
+     */
+    static final Node ALL = new Node();
+
+    private static final String WILDCARD = "*";
+
+    private final Node root = new Node();
+
+    private PathTrie() {
+    }
+
+    static PathTrie of(Collection<String> paths) {
+        PathTrie trie = new PathTrie();
+        for (String path : paths) {
+            if (path == null || path.isEmpty()) continue;
+            Node node = trie.root;
+            for (String segment : path.split("\\.")) {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+            node.terminal = true;
+        }
+        mergeWildcards(trie.root);
+        return trie;
+    }
+
+    /**
+     * Copies every {@code *} subtree into its exact siblings, so that descending into an exact child keeps
+     * the paths configured through the wildcard ({@code "a.*"} with {@code "a.b.c"} still matches {@code "a.b.d"}).
+     */
+    private static void mergeWildcards(Node node) {
+        Node wildcard = node.children.get(WILDCARD);
+        if (wildcard != null) {
+            node.children.forEach((segment, child) -> {
+                if (child != wildcard) copyInto(wildcard, child);
+            });
+        }
+        for (Node child : node.children.values()) {
+            mergeWildcards(child);
+        }
+    }
+
+    private static void copyInto(Node source, Node target) {
+        if (source.terminal) target.terminal = true;
+        source.children.forEach((segment, child) ->
+                copyInto(child, target.children.computeIfAbsent(segment, s -> new Node())));
+    }
+
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Moves the cursor to the given field: {@link #ALL} if a configured path ends at (or above) it,
+     * a partial node if configured paths continue below it, {@code null} if nothing matches.
+     */
+    static Node descend(Node node, String name) {
+        if (node == ALL) return ALL;
+        Node child = node.children.get(name);
+        if (child == null) child = node.children.get(WILDCARD);
+        if (child == null) return null;
+        return child.terminal ? ALL : child;
+    }
+
+    static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private boolean terminal;
+    }
+}
@@ -0,0 +1,178 @@
+package mn.astvision.commontools.entityupdater;
+
+import org.bson.BsonWriter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Boxing-free compare and copy of one primitive field.
+ * <p>
+ * The field is read and written through method handles typed {@code (Object)int}, {@code (Object)long},
+ * {@code (Object)float} or {@code (Object)double}; {@code boolean}, {@code byte}, {@code char} and {@code short}
+ * share the {@code int} handles. Values are compared like their boxed forms ({@code float}/{@code double} by
+ * {@code floatToIntBits}/{@code doubleToLongBits}), so an unchanged field allocates nothing. Changes are recorded
+ * as raw bits in the report and boxed only when read.
+ */
+final class PrimitiveAccess {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    enum Kind {
+        BOOLEAN, CHAR, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE;
+
+        static Kind of(Class<?> type) {
+            if (type == boolean.class) return BOOLEAN;
+            if (type == char.class) return CHAR;
+            if (type == byte.class) return BYTE;
+            if (type == short.class) return SHORT;
+            if (type == int.class) return INT;
+            if (type == long.class) return LONG;
+            if (type == float.class) return FLOAT;
+            if (type == double.class) return DOUBLE;
+            return null;
+        }
+
+        Object box(long bits) {
+            return switch (this) {
+                case BOOLEAN -> bits != 0;
+                case CHAR -> (char) bits;
+                case BYTE -> (byte) bits;
+                case SHORT -> (short) bits;
+                case INT -> (int) bits;
+                case LONG -> bits;
+                case FLOAT -> Float.intBitsToFloat((int) bits);
+                case DOUBLE -> Double.longBitsToDouble(bits);
+            };
+        }
+
+        /**
+         * Writes the value the way the driver's default codecs encode its boxed form.
+         */
+        void write(BsonWriter writer, long bits) {
+            switch (this) {
+                case BOOLEAN -> writer.writeBoolean(bits != 0);
+                case CHAR -> writer.writeString(String.valueOf((char) bits));
+                case BYTE, SHORT, INT -> writer.writeInt32((int) bits);
+                case LONG -> writer.writeInt64(bits);
+                case FLOAT -> writer.writeDouble(Float.intBitsToFloat((int) bits));
+                case DOUBLE -> writer.writeDouble(Double.longBitsToDouble(bits));
+            }
+        }
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private PrimitiveAccess(String name, Kind kind, MethodHandle getter, MethodHandle setter) {
+        this.name = name;
+        this.kind = kind;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @return {@code null} unless the field is a writable primitive instance field that is already accessible
+     */
+    static PrimitiveAccess of(Field field) {
+        Kind kind = Kind.of(field.getType());
+        int modifiers = field.getModifiers();
+        if (kind == null || Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) return null;
+
+        Class<?> slot = switch (kind) {
+            case LONG -> long.class;
+            case FLOAT -> float.class;
+            case DOUBLE -> double.class;
+            default -> int.class;
+        };
+        try {
+            // explicitCastArguments widens/narrows the int-sized kinds, including boolean <-> int
+            MethodHandle getter = MethodHandles.explicitCastArguments(LOOKUP.unreflectGetter(field),
+                    MethodType.methodType(slot, Object.class));
+            MethodHandle setter = MethodHandles.explicitCastArguments(LOOKUP.unreflectSetter(field),
+                    MethodType.methodType(void.class, Object.class, slot));
+            return new PrimitiveAccess(field.getName(), kind, getter, setter);
+        } catch (IllegalAccessException e) {
+            // Not made accessible by FieldAccessors (e.g. module restrictions): the boxed accessor path is used
+            return null;
+        }
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Copies the field value from one object to another, e.g. into a clone.
+     */
+    void transfer(Object source, Object target) {
+        try {
+            switch (kind) {
+                case LONG -> setter.invokeExact(target, (long) getter.invokeExact(source));
+                case FLOAT -> setter.invokeExact(target, (float) getter.invokeExact(source));
+                case DOUBLE -> setter.invokeExact(target, (double) getter.invokeExact(source));
+                default -> setter.invokeExact(target, (int) getter.invokeExact(source));
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to copy field: " + name, e);
+        }
+    }
+
+    /**
+     * Compares the field of both objects and, if {@code write} is set, copies the new value into the target.
+     * A change is recorded in the report when one is given.
+     *
+     * @return whether the values differ
+     */
+    boolean copy(Object target, Object updates, UpdateReport report, String parentField, boolean write) {
+        try {
+            long oldBits;
+            long newBits;
+            switch (kind) {
+                case LONG -> {
+                    oldBits = (long) getter.invokeExact(target);
+                    newBits = (long) getter.invokeExact(updates);
+                    if (oldBits == newBits) return false;
+                    if (write) setter.invokeExact(target, newBits);
+                }
+                case FLOAT -> {
+                    float oldValue = (float) getter.invokeExact(target);
+                    float newValue = (float) getter.invokeExact(updates);
+                    if (Float.floatToIntBits(oldValue) == Float.floatToIntBits(newValue)) return false;
+                    if (write) setter.invokeExact(target, newValue);
+                    oldBits = Float.floatToRawIntBits(oldValue);
+                    newBits = Float.floatToRawIntBits(newValue);
+                }
+                case DOUBLE -> {
+                    double oldValue = (double) getter.invokeExact(target);
+                    double newValue = (double) getter.invokeExact(updates);
+                    if (Double.doubleToLongBits(oldValue) == Double.doubleToLongBits(newValue)) return false;
+                    if (write) setter.invokeExact(target, newValue);
+                    oldBits = Double.doubleToRawLongBits(oldValue);
+                    newBits = Double.doubleToRawLongBits(newValue);
+                }
+                default -> {
+                    int oldValue = (int) getter.invokeExact(target);
+                    int newValue = (int) getter.invokeExact(updates);
+                    if (oldValue == newValue) return false;
+                    if (write) setter.invokeExact(target, newValue);
+                    oldBits = oldValue;
+                    newBits = newValue;
+                }
+            }
+            if (report != null) report.addPrimitiveChange(UpdatePlan.buildFieldPath(parentField, name), kind, oldBits, newBits);
+            return true;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to copy field: " + name, e);
+        }
+    }
+}
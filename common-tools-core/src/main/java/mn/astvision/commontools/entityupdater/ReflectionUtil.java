@@ -56,21 +56,4 @@ public class ReflectionUtil {
         String pkg = clazz.getPackageName();
         return !pkg.startsWith("java.") && !clazz.isEnum();
     }
-
-
-    private Object copyNonNullFields(Object source, boolean skipNulls) {
-        try {
-            Object copy = source.getClass().getDeclaredConstructor().newInstance();
-            for (Field field : getAllFields(source.getClass())) {
-                field.setAccessible(true);
-                Object value = field.get(source);
-                if (skipNulls && value == null) continue;
-                field.set(copy, value);
-            }
-            return copy;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to copy nested object", e);
-        }
-    }
-
 }
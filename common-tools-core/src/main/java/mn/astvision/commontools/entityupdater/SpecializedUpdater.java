@@ -0,0 +1,44 @@
+package mn.astvision.commontools.entityupdater;
+
+/**
+ * Type-specialized updater generated at runtime by {@link UpdaterGenerator} for hot entity types.
+ * <p>
+ * Implementations copy and compare simple fields with straight-line code. Every other field, and every
+ * field whose configuration needs converters, conditions or strategies, is handed back to the generic
+ * {@link EntityUpdater} path through {@link Fallback}. Field indices refer to
+ * {@link ClassUpdatePlan#getUpdatableFields()}.
+ */
+public interface SpecializedUpdater {
+
+    /**
+     * Field is excluded by skip/include configuration.
+     */
+    byte SKIP = 0;
+
+    /**
+     * Field is updated by the generic path.
+     */
+    byte FALLBACK = 1;
+
+    /**
+     * Field may be copied directly.
+     */
+    byte PLAIN = 2;
+
+    /**
+     * Field may be copied directly, unless the new value is {@code null}.
+     */
+    byte PLAIN_SKIP_NULLS = 3;
+
+    /**
+     * @param report may be {@code null} when the caller does not need a report
+     * @return whether the target was modified
+     */
+    boolean update(Object target, Object updates, byte[] modes, UpdateReport report, Fallback fallback) throws IllegalAccessException;
+
+    interface Fallback {
+        boolean updateField(int index) throws IllegalAccessException;
+
+        String path(int index);
+    }
+}
@@ -0,0 +1,214 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldPlan;
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+
+import java.util.*;
+
+/**
+ * Field-level three-way merge behind {@link UpdatePlan#merge}.
+ * <p>
+ * The merged entity starts as a deep copy of ours. For every field, a change on one side only is taken, a field
+ * changed on both sides to different values is merged recursively if it is a nested object (or, per key, a map),
+ * and is otherwise a conflict that keeps our value. Values are compared structurally: lists element by element,
+ * maps key by key and user classes field by field, so entities without {@code equals} merge as expected. Records
+ * and final-field value objects are rebuilt through their canonical constructor.
+ * <p>
+ * The plan's skip/include paths and maximum depth apply; nulls are ordinary values, so a field cleared on one side
+ * is a change, and converters, conditions and field strategies are not used.
+ */
+final class ThreeWayMerge {
+
+    private final UpdatePlan<?> plan;
+    private final List<MergeResult.Conflict> conflicts = new ArrayList<>();
+    private final UpdateReport changes = new UpdateReport();
+
+    // Merged objects already handled, so that cycles in the graph end the recursion
+    private final IdentityHashMap<Object, Boolean> merging = new IdentityHashMap<>();
+    // Pairs being compared further up, for cyclic structural comparison
+    private final IdentityHashMap<Object, Object> comparing = new IdentityHashMap<>();
+
+    ThreeWayMerge(UpdatePlan<?> plan) {
+        this.plan = plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> MergeResult<T> merge(T base, T ours, T theirs) {
+        if (base == null || ours == null || theirs == null) {
+            throw new IllegalArgumentException("Base, ours and theirs are required for a merge");
+        }
+        T merged = (T) mergeObject(base, ours, theirs, EntityCloner.deepClone(ours), "", 0, plan.rootInclude(), plan.rootSkip());
+        if (plan.fieldMapper != null) changes.setFieldMapper(plan.fieldMapper);
+        return new MergeResult<>(merged, List.copyOf(conflicts), changes);
+    }
+
+    /**
+     * Merges the fields of one object level into {@code merged}, the copy of ours at that level.
+     *
+     * @return {@code merged}, or its rebuilt replacement for records and value objects
+     */
+    private Object mergeObject(Object base, Object ours, Object theirs, Object merged, String path, int depth,
+                               PathTrie.Node include, PathTrie.Node skip) {
+        if (depth > plan.maxDepth || merging.put(merged, Boolean.TRUE) != null) return merged;
+
+        ValueConstructor constructor = ValueConstructor.of(merged.getClass());
+        List<FieldPlan> fields = constructor == null ? ClassUpdatePlan.of(merged.getClass()).getUpdatableFields() : null;
+        Object[] values = constructor != null ? constructor.values(merged) : null;
+        Object target = constructor != null ? values : merged;
+        int size = constructor != null ? constructor.size() : fields.size();
+
+        boolean modified = false;
+        try {
+            for (int i = 0; i < size; i++) {
+                FieldPlan fieldPlan = constructor != null ? constructor.component(i) : fields.get(i);
+                FieldAccessor writer = constructor != null ? constructor.slot(i) : fieldPlan.accessor();
+                if (fieldPlan.skipped() || plan.shouldSkip(fieldPlan.name(), fieldPlan.kind(), include, skip)) continue;
+
+                String fieldPath = UpdatePlan.buildFieldPath(path, fieldPlan.name());
+                Object baseValue = fieldPlan.accessor().get(base);
+                Object ourValue = fieldPlan.accessor().get(ours);
+                Object theirValue = fieldPlan.accessor().get(theirs);
+
+                if (same(ourValue, theirValue)) continue;
+                if (same(baseValue, ourValue)) {
+                    // Changed by them only
+                    writer.set(target, EntityCloner.deepClone(theirValue));
+                    modified = true;
+                    continue;
+                }
+                if (same(baseValue, theirValue)) {
+                    // Changed by us only: the merged copy already holds our value
+                    record(fieldPath, theirValue, ourValue);
+                    continue;
+                }
+
+                Object current = writer.get(target);
+                if (isStructured(baseValue, ourValue, theirValue) && current != null) {
+                    Object result = mergeObject(baseValue, ourValue, theirValue, current, fieldPath, depth + 1,
+                            UpdatePlan.childCursor(include, fieldPlan.name()), UpdatePlan.childCursor(skip, fieldPlan.name()));
+                    if (result != current) {
+                        writer.set(target, result);
+                        modified = true;
+                    }
+                } else if (ourValue instanceof Map<?, ?> ourMap && theirValue instanceof Map<?, ?> theirMap
+                        && (baseValue == null || baseValue instanceof Map<?, ?>)) {
+                    writer.set(target, mergeMap((Map<?, ?>) baseValue, ourMap, theirMap, fieldPath));
+                    modified = true;
+                } else {
+                    conflicts.add(new MergeResult.Conflict(fieldPath, baseValue, ourValue, theirValue));
+                    record(fieldPath, theirValue, ourValue);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to merge object at: " + (path.isEmpty() ? "<root>" : path), e);
+        }
+
+        return constructor != null && modified ? constructor.construct(values) : merged;
+    }
+
+    /**
+     * Merges a map changed on both sides key by key; values are not merged further.
+     */
+    private Map<Object, Object> mergeMap(Map<?, ?> base, Map<?, ?> ours, Map<?, ?> theirs, String path) {
+        Map<?, ?> baseMap = base != null ? base : Map.of();
+        Set<Object> keys = new LinkedHashSet<>(ours.keySet());
+        keys.addAll(theirs.keySet());
+        keys.addAll(baseMap.keySet());
+
+        Map<Object, Object> merged = new LinkedHashMap<>();
+        for (Object key : keys) {
+            Object baseValue = baseMap.get(key);
+            Object ourValue = ours.get(key);
+            Object theirValue = theirs.get(key);
+
+            Object value;
+            if (same(ourValue, theirValue) || same(baseValue, theirValue)) {
+                value = ourValue;
+            } else if (same(baseValue, ourValue)) {
+                value = theirValue;
+            } else {
+                conflicts.add(new MergeResult.Conflict(path + "." + key, baseValue, ourValue, theirValue));
+                value = ourValue;
+            }
+            if (value != null) merged.put(key, EntityCloner.deepClone(value));
+        }
+
+        if (!same(merged, theirs)) changes.addMapChange(path, new LinkedHashMap<>(theirs), new LinkedHashMap<>(merged));
+        return merged;
+    }
+
+    /**
+     * Records a merged value that differs from theirs, i.e. what has to be written onto their document.
+     */
+    private void record(String path, Object theirValue, Object mergedValue) {
+        if (mergedValue instanceof Collection<?> collection) {
+            changes.addCollectionChange(path, theirValue instanceof Collection<?> theirs ? UpdatePlan.copyOf(theirs) : null,
+                    UpdatePlan.copyOf(collection));
+        } else if (mergedValue instanceof Map<?, ?> map) {
+            changes.addMapChange(path, theirValue instanceof Map<?, ?> theirs ? new LinkedHashMap<>(theirs) : null,
+                    new LinkedHashMap<>(map));
+        } else {
+            changes.addChange(path, theirValue, mergedValue);
+        }
+    }
+
+    // ======================
+    // Structural comparison
+    // ======================
+
+    private boolean same(Object a, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (a.equals(b)) return true;
+
+        if (a.getClass().isArray()) return Objects.deepEquals(a, b);
+        if (a instanceof List<?> first && b instanceof List<?> second) {
+            if (first.size() != second.size()) return false;
+            Iterator<?> other = second.iterator();
+            for (Object element : first) {
+                if (!same(element, other.next())) return false;
+            }
+            return true;
+        }
+        if (a instanceof Map<?, ?> first && b instanceof Map<?, ?> second) {
+            if (first.size() != second.size()) return false;
+            for (Map.Entry<?, ?> entry : first.entrySet()) {
+                if (!second.containsKey(entry.getKey()) || !same(entry.getValue(), second.get(entry.getKey()))) return false;
+            }
+            return true;
+        }
+        if (a.getClass() != b.getClass() || !isStructured(a.getClass())) return false;
+
+        // A pair reached again through a cycle is assumed equal; any difference shows up elsewhere on the path
+        if (comparing.get(a) == b) return true;
+        Object previous = comparing.put(a, b);
+        try {
+            for (FieldPlan fieldPlan : ClassUpdatePlan.of(a.getClass()).getUpdatableFields()) {
+                if (!same(fieldPlan.accessor().get(a), fieldPlan.accessor().get(b))) return false;
+            }
+            return true;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to compare " + a.getClass().getName(), e);
+        } finally {
+            if (previous != null) comparing.put(a, previous);
+            else comparing.remove(a);
+        }
+    }
+
+    private static boolean isStructured(Object base, Object ours, Object theirs) {
+        return base != null && ours != null && theirs != null
+                && base.getClass() == ours.getClass() && ours.getClass() == theirs.getClass()
+                && isStructured(ours.getClass());
+    }
+
+    /**
+     * User classes that are merged and compared field by field; driver types such as {@code ObjectId} are values.
+     */
+    private static boolean isStructured(Class<?> type) {
+        return ReflectionUtil.isUserClass(type)
+                && !type.isArray()
+                && !Collection.class.isAssignableFrom(type)
+                && !Map.class.isAssignableFrom(type)
+                && !type.getPackageName().startsWith("org.bson");
+    }
+}
@@ -0,0 +1,1046 @@
+package mn.astvision.commontools.entityupdater;
+
+import lombok.extern.slf4j.Slf4j;
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldKind;
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldPlan;
+import mn.astvision.commontools.entityupdater.EntityUpdater.FieldConverter;
+import mn.astvision.commontools.entityupdater.EntityUpdater.FieldUpdateStrategy;
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+import mn.astvision.commontools.entityupdater.interfaces.GeneratedUpdater;
+import mn.astvision.commontools.entityupdater.interfaces.UpdateContext;
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.data.util.Pair;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.util.ClassUtils;
+
+import java.io.Serial;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static mn.astvision.commontools.entityupdater.ReflectionUtil.createFieldMapper;
+import static mn.astvision.commontools.entityupdater.ReflectionUtil.isPrimitiveOrWrapperOrString;
+
+/**
+ * Immutable, thread-safe update configuration compiled once and applied to any number of
+ * target/update pairs.
+ * <pre>{@code
+ * UpdatePlan<Citizen> plan = EntityUpdater.plan(Citizen.class)
+ *         .skipFields("passportNumber")
+ *         .includeFields("name", "address.city")
+ *         .compile();
+ *
+ * UpdateReport report = plan.apply(target, updates);
+ * }</pre>
+ * Skip and include paths are compiled into {@link PathTrie}s that are walked one segment per nesting
+ * level. Plain names in {@code skipFields} skip the field at any depth; dotted paths skip exactly that path.
+ * {@code includeFields} entries may point into nested objects ({@code "address.city"}) or use a
+ * {@code *} segment ({@code "address.*"}).
+ */
+@Slf4j
+public final class UpdatePlan<T> {
+
+    private static final ConversionService CONVERSIONS = new DefaultFormattingConversionService();
+
+    private final Class<T> type;
+    final boolean skipNulls;
+    final int maxDepth;
+    private final boolean iterative;
+
+    private final Set<String> skipFields;
+    private final PathTrie skipPaths;
+    private final PathTrie includePaths;
+
+    final Map<String, String> fieldMapper;
+    private final List<FieldConverter> converters;
+    private final Map<String, Predicate<Object>> updateConditions;
+    private final Map<String, FieldUpdateStrategy> fieldStrategies;
+    private final ConverterRegistry converterRegistry;
+
+    private final boolean fieldConfiguration;
+    private final Map<ModesKey, byte[]> modesCache = new ConcurrentHashMap<>();
+
+    UpdatePlan(Class<T> type, boolean skipNulls, int maxDepth, boolean iterative, Collection<String> skipFields, Collection<String> includeFields,
+               Map<String, String> fieldMapper, List<FieldConverter> converters,
+               Map<String, Predicate<Object>> updateConditions, Map<String, FieldUpdateStrategy> fieldStrategies,
+               ConverterRegistry converterRegistry) {
+        this.type = type;
+        this.skipNulls = skipNulls;
+        this.maxDepth = maxDepth;
+        this.iterative = iterative;
+
+        Set<String> names = new HashSet<>();
+        List<String> paths = new ArrayList<>();
+        if (skipFields != null) {
+            for (String field : skipFields) {
+                if (field == null) continue;
+                if (field.indexOf('.') >= 0) paths.add(field);
+                else names.add(field);
+            }
+        }
+        this.skipFields = Set.copyOf(names);
+        this.skipPaths = paths.isEmpty() ? null : PathTrie.of(paths);
+        this.includePaths = includeFields == null || includeFields.isEmpty() ? null : PathTrie.of(includeFields);
+
+        this.fieldMapper = fieldMapper != null ? Collections.unmodifiableMap(new HashMap<>(fieldMapper)) : null;
+        this.converters = converters != null ? List.copyOf(converters) : List.of();
+        this.updateConditions = immutableCopy(updateConditions);
+        this.fieldStrategies = immutableCopy(fieldStrategies);
+        this.converterRegistry = converterRegistry != null ? converterRegistry : ConverterRegistry.global();
+
+        this.fieldConfiguration = !this.skipFields.isEmpty() || skipPaths != null || includePaths != null
+                || !this.converters.isEmpty() || !this.updateConditions.isEmpty() || !this.fieldStrategies.isEmpty();
+    }
+
+    public static <T> Builder<T> builder(Class<T> type) {
+        return new Builder<>(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    // ======================
+    // Apply
+    // ======================
+
+    public UpdateReport apply(T target, T updates) {
+        UpdateReport report = new UpdateReport();
+        if (target == null || updates == null) return report;
+        traverse(target, updates, report);
+        if (fieldMapper != null) report.setFieldMapper(fieldMapper);
+        return report;
+    }
+
+    /**
+     * Applies the updates without building a report: no old-value copies, no collection/map diffs.
+     *
+     * @return whether the target was modified
+     */
+    public boolean update(T target, T updates) {
+        if (target == null || updates == null) return false;
+        return traverse(target, updates, null);
+    }
+
+    /**
+     * Applies every {@code (target, updates)} pair in parallel on the given pool and returns the reports in
+     * input order. Targets must be distinct objects.
+     */
+    public List<UpdateReport> applyAll(List<Pair<T, T>> pairs, ForkJoinPool pool) {
+        UpdateReport[] reports = new UpdateReport[pairs.size()];
+        if (reports.length == 0) return List.of();
+
+        // A few tasks per worker keeps the pool busy without splitting down to single pairs
+        int threshold = Math.max(1, reports.length / (pool.getParallelism() * 4));
+        pool.invoke(new BatchTask<>(this, pairs, reports, 0, reports.length, threshold));
+        return Arrays.asList(reports);
+    }
+
+    private static final class BatchTask<T> extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final UpdatePlan<T> plan;
+        private final List<Pair<T, T>> pairs;
+        private final UpdateReport[] reports;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        private BatchTask(UpdatePlan<T> plan, List<Pair<T, T>> pairs, UpdateReport[] reports, int from, int to, int threshold) {
+            this.plan = plan;
+            this.pairs = pairs;
+            this.reports = reports;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    Pair<T, T> pair = pairs.get(i);
+                    reports[i] = plan.apply(pair.getFirst(), pair.getSecond());
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask<>(plan, pairs, reports, from, middle, threshold),
+                    new BatchTask<>(plan, pairs, reports, middle, to, threshold));
+        }
+    }
+
+    PathTrie.Node rootInclude() {
+        return includePaths != null ? includePaths.root() : null;
+    }
+
+    PathTrie.Node rootSkip() {
+        return skipPaths != null ? skipPaths.root() : null;
+    }
+
+    // ======================
+    // Recursive field update
+    // ======================
+
+    // A null report selects the report-free path; every method returns whether the target was modified
+
+    /**
+     * Root of one update: owns the visit tracker and, in iterative mode, drains the queue of nested objects.
+     */
+    private boolean traverse(Object target, Object updates, UpdateReport report) {
+        PathTrie.Node include = rootInclude();
+        PathTrie.Node skip = rootSkip();
+        VisitTracker visits = VisitTracker.acquire(target, updates, include, skip);
+        try {
+            boolean changed = updateObject(target, updates, report, "", 0, include, skip, visits);
+            VisitTracker.Pending next;
+            while ((next = visits.poll()) != null) {
+                changed |= updateObject(next.target(), next.updates(), report, next.fieldPath(), next.depth(),
+                        next.include(), next.skip(), visits);
+            }
+            return changed;
+        } finally {
+            visits.release();
+        }
+    }
+
+    private boolean updateObject(Object targetObj, Object updatesObj, UpdateReport report, String parentField, int depth,
+                                 PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) {
+        if (targetObj == null || updatesObj == null || depth > maxDepth) return false;
+
+        // Compile-time generated updater is preferred over any reflective path
+        GeneratedUpdater<Object> generated = GeneratedUpdaters.find(targetObj.getClass());
+        if (generated != null && targetObj.getClass().isInstance(updatesObj)) {
+            Scope scope = new Scope(targetObj.getClass(), generated.fields(), include, skip, visits);
+            try {
+                boolean changed = generated.update(targetObj, updatesObj, scope, report, parentField, depth);
+                return changed | scope.strategyChanged;
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to update object at: " + (parentField.isEmpty() ? "<root>" : parentField), e);
+            }
+        }
+
+        ClassUpdatePlan plan = ClassUpdatePlan.of(targetObj.getClass());
+        SpecializedUpdater specialized = plan.specialized(EntityUpdater.getSpecializationThreshold());
+        if (specialized != null && plan.getType().isInstance(updatesObj)) {
+            return updateSpecialized(specialized, plan, targetObj, updatesObj, report, parentField, depth, include, skip, visits);
+        }
+
+        boolean changed = false;
+        for (FieldPlan fieldPlan : plan.getUpdatableFields()) {
+            if (shouldSkip(fieldPlan.name(), fieldPlan.kind(), include, skip)) continue;
+            changed |= updateField(fieldPlan, targetObj, updatesObj, report, parentField, depth, include, skip, visits);
+        }
+        return changed;
+    }
+
+    private boolean updateField(FieldPlan fieldPlan, Object targetObj, Object updatesObj, UpdateReport report, String parentField,
+                                int depth, PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) {
+        Field field = fieldPlan.field();
+        FieldAccessor accessor = fieldPlan.accessor();
+
+        // Primitive without per-field hooks: compared and copied unboxed
+        if (fieldPlan.primitive() != null && isPlain(fieldPlan.name())) {
+            return fieldPlan.primitive().copy(targetObj, updatesObj, report, parentField, true);
+        }
+
+        try {
+            Object currentValue = accessor.get(targetObj);
+            Object newValue = accessor.get(updatesObj);
+
+            newValue = applyConverters(field, newValue);
+
+            if (skipNulls && newValue == null) return false;
+            if (!passesUpdateCondition(field.getName(), newValue)) return false;
+
+            FieldUpdateStrategy strategy = fieldStrategies.get(field.getName());
+            if (strategy != null) return applyStrategy(strategy, field, targetObj, newValue, report, parentField);
+
+            // Paths are only needed for the report, or as the parent path of a nested object
+            String fieldPath = report != null || fieldPlan.kind() == FieldKind.NESTED ? buildFieldPath(parentField, field.getName()) : null;
+
+            return updateValue(fieldPlan, accessor, targetObj, currentValue, newValue, report, fieldPath, depth, include, skip, visits);
+
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to update field: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * Dispatches to the update handler of the precomputed field kind, once converters and conditions have run.
+     */
+    private boolean updateValue(FieldPlan fieldPlan, FieldAccessor accessor, Object targetObj, Object currentValue, Object newValue,
+                                UpdateReport report, String fieldPath, int depth, PathTrie.Node include, PathTrie.Node skip,
+                                VisitTracker visits) throws IllegalAccessException {
+        return switch (fieldPlan.kind()) {
+            case SIMPLE -> updateSimple(accessor, targetObj, currentValue, newValue, report, fieldPath);
+            case COLLECTION -> newValue instanceof Collection<?> newCol
+                    && updateCollection(accessor, targetObj, currentValue, newCol, report, fieldPath);
+            case MAP -> newValue instanceof Map<?, ?> newMap
+                    && updateMap(accessor, targetObj, currentValue, newMap, report, fieldPath);
+            default -> {
+                // Declared type may still hold a collection or map at runtime (e.g. Object)
+                if (newValue instanceof Collection<?> newCol) yield updateCollection(accessor, targetObj, currentValue, newCol, report, fieldPath);
+                if (newValue instanceof Map<?, ?> newMap) yield updateMap(accessor, targetObj, currentValue, newMap, report, fieldPath);
+
+                // Nested POJO
+                yield updateNested(accessor, targetObj, currentValue, newValue, report, fieldPath, depth,
+                        childCursor(include, fieldPlan.name()), childCursor(skip, fieldPlan.name()), visits);
+            }
+        };
+    }
+
+    // ======================
+    // Diff
+    // ======================
+
+    /**
+     * Reports what {@link #apply(Object, Object)} would change on {@code target}, without modifying either
+     * object. Field strategies cannot run without mutating, so their fields are compared as plain values.
+     */
+    public UpdateReport diff(T target, T updates) {
+        return new EntityDiff(this, null).diff(target, updates);
+    }
+
+    /**
+     * Like {@link #diff(Object, Object)}, diffing independent nested objects concurrently on the given pool.
+     */
+    public UpdateReport diff(T target, T updates, ForkJoinPool pool) {
+        return new EntityDiff(this, pool).diff(target, updates);
+    }
+
+    // ======================
+    // Three-way merge
+    // ======================
+
+    /**
+     * Merges two concurrent edits of the same entity: {@code ours} and {@code theirs} were both derived from
+     * {@code base}. None of the three objects is modified; see {@link ThreeWayMerge} for the rules and
+     * {@link MergeWriter} for a version-conditioned save on top of it.
+     */
+    public MergeResult<T> merge(T base, T ours, T theirs) {
+        return new ThreeWayMerge(this).merge(base, ours, theirs);
+    }
+
+    // ======================
+    // Patch payloads
+    // ======================
+
+    /**
+     * Applies a PATCH payload ({@code Map} or BSON {@code Document}) onto the target. Keys may be dotted paths
+     * ({@code "address.city"}) or nest maps ({@code {"address": {"city": ...}}}); only keys that are present are
+     * touched, and an explicit {@code null} clears the field (or removes the key of a map field). Values run
+     * through the plan's converters and are then converted to the declared field type.
+     */
+    public UpdateReport applyPatch(T target, Map<String, ?> patch) {
+        UpdateReport report = new UpdateReport();
+        if (target == null || patch == null) return report;
+        VisitTracker visits = VisitTracker.acquire(target, null, null, null);
+        try {
+            patchObject(target, patch, report, "", 0, rootInclude(), rootSkip(), visits);
+            // Object values inside the payload are applied like updates, possibly through the iterative queue
+            VisitTracker.Pending next;
+            while ((next = visits.poll()) != null) {
+                updateObject(next.target(), next.updates(), report, next.fieldPath(), next.depth(), next.include(), next.skip(), visits);
+            }
+        } finally {
+            visits.release();
+        }
+        if (fieldMapper != null) report.setFieldMapper(fieldMapper);
+        return report;
+    }
+
+    private boolean patchObject(Object targetObj, Map<String, ?> patch, UpdateReport report, String parentField, int depth,
+                                PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) {
+        if (depth > maxDepth) return false;
+
+        ClassUpdatePlan plan = ClassUpdatePlan.of(targetObj.getClass());
+        boolean changed = false;
+        for (Map.Entry<String, Object> entry : groupPatch(patch).entrySet()) {
+            FieldPlan fieldPlan = plan.getField(entry.getKey());
+            if (fieldPlan == null || fieldPlan.skipped()) {
+                log.debug("Ignoring patch of unknown or protected field: {}", buildFieldPath(parentField, entry.getKey()));
+                continue;
+            }
+            if (shouldSkip(fieldPlan.name(), fieldPlan.kind(), include, skip)) continue;
+            changed |= patchField(fieldPlan, fieldPlan.accessor(), targetObj, entry.getValue(), report, parentField, depth,
+                    include, skip, visits);
+        }
+        return changed;
+    }
+
+    private boolean patchField(FieldPlan fieldPlan, FieldAccessor accessor, Object targetObj, Object value, UpdateReport report,
+                               String parentField, int depth, PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) {
+        Field field = fieldPlan.field();
+        String fieldPath = buildFieldPath(parentField, field.getName());
+
+        try {
+            Object currentValue = accessor.get(targetObj);
+
+            // Partial update of a nested object or of single map entries
+            if (value instanceof NestedPatch || (fieldPlan.kind() == FieldKind.NESTED && value instanceof Map<?, ?>)) {
+                @SuppressWarnings("unchecked")
+                Map<String, ?> nested = (Map<String, ?>) value;
+                if (fieldPlan.kind() == FieldKind.NESTED) {
+                    ValueConstructor constructor = ValueConstructor.of(currentValue != null ? currentValue.getClass() : accessor.getType());
+                    if (constructor != null) {
+                        return patchValue(constructor, accessor, targetObj, currentValue, nested, report, fieldPath, depth + 1,
+                                childCursor(include, field.getName()), childCursor(skip, field.getName()), visits);
+                    }
+
+                    boolean created = false;
+                    if (currentValue == null) {
+                        currentValue = newInstance(accessor, fieldPath);
+                        accessor.set(targetObj, currentValue);
+                        created = true;
+                    }
+                    return patchObject(currentValue, nested, report, fieldPath, depth + 1,
+                            childCursor(include, field.getName()), childCursor(skip, field.getName()), visits) | created;
+                }
+                if (fieldPlan.kind() == FieldKind.MAP) {
+                    return patchMapEntries(fieldPlan, accessor, targetObj, currentValue, nested, report, fieldPath);
+                }
+                throw new IllegalArgumentException("Cannot apply a nested patch to field: " + fieldPath);
+            }
+
+            Object newValue = convertValue(fieldPlan, applyConverters(field, value), fieldPath);
+            if (!passesUpdateCondition(field.getName(), newValue)) return false;
+
+            // Strategies write the entity field itself, so they do not apply to components of immutable values
+            FieldUpdateStrategy strategy = accessor instanceof ValueConstructor.Slot ? null : fieldStrategies.get(field.getName());
+            if (strategy != null) return applyStrategy(strategy, field, targetObj, newValue, report, parentField);
+
+            if (newValue instanceof Collection<?> newCol) return updateCollection(accessor, targetObj, currentValue, newCol, report, fieldPath);
+            if (newValue instanceof Map<?, ?> newMap) return updateMap(accessor, targetObj, currentValue, newMap, report, fieldPath);
+            if (fieldPlan.kind() == FieldKind.NESTED && newValue != null) {
+                return updateNested(accessor, targetObj, currentValue, newValue, report, fieldPath, depth,
+                        childCursor(include, field.getName()), childCursor(skip, field.getName()), visits);
+            }
+            return updateSimple(accessor, targetObj, currentValue, newValue, report, fieldPath);
+
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to patch field: " + fieldPath, e);
+        }
+    }
+
+    private boolean patchMapEntries(FieldPlan fieldPlan, FieldAccessor accessor, Object targetObj, Object currentValue,
+                                    Map<String, ?> entries, UpdateReport report, String fieldPath) throws IllegalAccessException {
+        TypeDescriptor valueType = new TypeDescriptor(fieldPlan.field()).getMapValueTypeDescriptor();
+        Map<Object, Object> newMap = currentValue instanceof Map<?, ?> map ? new LinkedHashMap<>(map) : new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            if (entry.getValue() == null) newMap.remove(entry.getKey());
+            else newMap.put(entry.getKey(), convert(entry.getValue(), valueType, fieldPath + "." + entry.getKey()));
+        }
+        return updateMap(accessor, targetObj, currentValue, newMap, report, fieldPath);
+    }
+
+    /**
+     * Patches the components of an immutable value and sets the rebuilt value, if a component changed.
+     */
+    private boolean patchValue(ValueConstructor constructor, FieldAccessor accessor, Object parentObj, Object currentValue,
+                               Map<String, ?> patch, UpdateReport report, String fieldPath, int depth,
+                               PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) throws IllegalAccessException {
+        if (depth > maxDepth) return false;
+
+        Object[] values = constructor.values(currentValue);
+        boolean changed = currentValue == null;
+        for (Map.Entry<String, Object> entry : groupPatch(patch).entrySet()) {
+            int index = constructor.indexOf(entry.getKey());
+            FieldPlan component = index >= 0 ? constructor.component(index) : null;
+            if (component == null || component.skipped()) {
+                log.debug("Ignoring patch of unknown or protected field: {}", buildFieldPath(fieldPath, entry.getKey()));
+                continue;
+            }
+            if (shouldSkip(component.name(), component.kind(), include, skip)) continue;
+            changed |= patchField(component, constructor.slot(index), values, entry.getValue(), report, fieldPath, depth,
+                    include, skip, visits);
+        }
+
+        if (!changed) return false;
+        accessor.set(parentObj, constructor.construct(values));
+        return true;
+    }
+
+    /**
+     * Groups dotted keys by their first segment into nested patches, keeping payload order.
+     */
+    private static Map<String, Object> groupPatch(Map<String, ?> patch) {
+        Map<String, Object> grouped = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : patch.entrySet()) {
+            String key = entry.getKey();
+            int dot = key.indexOf('.');
+            if (dot < 0) {
+                if (grouped.get(key) instanceof NestedPatch nested && entry.getValue() instanceof Map<?, ?> map) {
+                    map.forEach((k, v) -> nested.put(String.valueOf(k), v));
+                } else {
+                    grouped.put(key, entry.getValue());
+                }
+                continue;
+            }
+
+            String head = key.substring(0, dot);
+            Object existing = grouped.get(head);
+            NestedPatch nested;
+            if (existing instanceof NestedPatch current) {
+                nested = current;
+            } else {
+                nested = new NestedPatch();
+                if (existing instanceof Map<?, ?> map) map.forEach((k, v) -> nested.put(String.valueOf(k), v));
+                grouped.put(head, nested);
+            }
+            nested.put(key.substring(dot + 1), entry.getValue());
+        }
+        return grouped;
+    }
+
+    /**
+     * Sub-payload built from dotted keys; merged into the field instead of replacing it.
+     */
+    private static final class NestedPatch extends LinkedHashMap<String, Object> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static Object convertValue(FieldPlan fieldPlan, Object value, String fieldPath) {
+        if (value == null) return null;
+        // Containers are always converted so that their elements match the declared generic type
+        if (!(value instanceof Collection<?>) && !(value instanceof Map<?, ?>)
+                && ClassUtils.isAssignableValue(fieldPlan.field().getType(), value)) {
+            return value;
+        }
+        return convert(value, new TypeDescriptor(fieldPlan.field()), fieldPath);
+    }
+
+    private static Object convert(Object value, TypeDescriptor targetType, String fieldPath) {
+        if (value == null || targetType == null) return value;
+        try {
+            return CONVERSIONS.convert(value, TypeDescriptor.forObject(value), targetType);
+        } catch (ConversionException e) {
+            throw new IllegalArgumentException("Cannot convert value of field " + fieldPath + " to " + targetType, e);
+        }
+    }
+
+    static Object newInstance(FieldAccessor accessor, String fieldPath) {
+        try {
+            ValueConstructor constructor = ValueConstructor.of(accessor.getType());
+            if (constructor != null) return constructor.construct(constructor.values(null));
+            return accessor.getType().getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create instance for nested field: " + fieldPath, e);
+        }
+    }
+
+    // ---------------------
+    // Specialized (generated) tier
+    // ---------------------
+
+    private boolean updateSpecialized(SpecializedUpdater specialized, ClassUpdatePlan plan, Object targetObj, Object updatesObj,
+                                      UpdateReport report, String parentField, int depth, PathTrie.Node include, PathTrie.Node skip,
+                                      VisitTracker visits) {
+        List<FieldPlan> fields = plan.getUpdatableFields();
+        // Typed converters may be registered after compilation, so their state is part of the key
+        byte[] modes = fieldConfiguration || !converterRegistry.isEmpty()
+                ? modesCache.computeIfAbsent(new ModesKey(plan, include, skip, converterRegistry.stamp()),
+                        key -> computeModes(fields, include, skip))
+                : plan.uniformModes(skipNulls);
+
+        // The fallback is a reused per-level frame, so that an unchanged object allocates nothing
+        SpecializedFrame frame = visits.enterFrame(SpecializedFrame::new);
+        frame.bind(this, fields, targetObj, updatesObj, report, parentField, depth, include, skip, visits);
+        try {
+            return specialized.update(targetObj, updatesObj, modes, report, frame);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to update object at: " + (parentField.isEmpty() ? "<root>" : parentField), e);
+        } finally {
+            frame.clear();
+            visits.exitFrame();
+        }
+    }
+
+    /**
+     * {@link SpecializedUpdater.Fallback} for one object level, rebound for every specialized update.
+     */
+    private static final class SpecializedFrame implements SpecializedUpdater.Fallback {
+        private UpdatePlan<?> plan;
+        private List<FieldPlan> fields;
+        private Object targetObj;
+        private Object updatesObj;
+        private UpdateReport report;
+        private String parentField;
+        private int depth;
+        private PathTrie.Node include;
+        private PathTrie.Node skip;
+        private VisitTracker visits;
+
+        void bind(UpdatePlan<?> plan, List<FieldPlan> fields, Object targetObj, Object updatesObj, UpdateReport report,
+                  String parentField, int depth, PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) {
+            this.plan = plan;
+            this.fields = fields;
+            this.targetObj = targetObj;
+            this.updatesObj = updatesObj;
+            this.report = report;
+            this.parentField = parentField;
+            this.depth = depth;
+            this.include = include;
+            this.skip = skip;
+            this.visits = visits;
+        }
+
+        void clear() {
+            bind(null, null, null, null, null, null, 0, null, null, null);
+        }
+
+        @Override
+        public boolean updateField(int index) {
+            return plan.updateField(fields.get(index), targetObj, updatesObj, report, parentField, depth, include, skip, visits);
+        }
+
+        @Override
+        public String path(int index) {
+            return buildFieldPath(parentField, fields.get(index).name());
+        }
+    }
+
+    private byte[] computeModes(List<FieldPlan> fields, PathTrie.Node include, PathTrie.Node skip) {
+        byte[] modes = new byte[fields.size()];
+        for (int i = 0; i < modes.length; i++) {
+            FieldPlan fieldPlan = fields.get(i);
+            String name = fieldPlan.name();
+            if (shouldSkip(name, fieldPlan.kind(), include, skip)) {
+                modes[i] = SpecializedUpdater.SKIP;
+            } else if (!isPlain(name)) {
+                modes[i] = SpecializedUpdater.FALLBACK;
+            } else {
+                modes[i] = skipNulls ? SpecializedUpdater.PLAIN_SKIP_NULLS : SpecializedUpdater.PLAIN;
+            }
+        }
+        return modes;
+    }
+
+    private record ModesKey(ClassUpdatePlan plan, PathTrie.Node include, PathTrie.Node skip, int converterStamp) {
+    }
+
+    // ---------------------
+    // Generated updater context
+    // ---------------------
+
+    /**
+     * Context handed to generated updaters for one object level, carrying the include/skip cursors.
+     * Fields are resolved from the metadata emitted with the updater, without accessors.
+     */
+    private final class Scope implements UpdateContext {
+        private final Class<?> targetType;
+        private final Map<String, GeneratedUpdater.FieldInfo> fields;
+        private final PathTrie.Node include;
+        private final PathTrie.Node skip;
+        private final VisitTracker visits;
+
+        // Strategies report "handled" to generated code, so their change flag is collected here
+        private boolean strategyChanged;
+
+        private Scope(Class<?> targetType, Map<String, GeneratedUpdater.FieldInfo> fields, PathTrie.Node include,
+                      PathTrie.Node skip, VisitTracker visits) {
+            this.targetType = targetType;
+            this.fields = fields;
+            this.include = include;
+            this.skip = skip;
+            this.visits = visits;
+        }
+
+        private GeneratedUpdater.FieldInfo field(String fieldName) {
+            GeneratedUpdater.FieldInfo field = fields.get(fieldName);
+            if (field != null || !fields.isEmpty()) return field;
+
+            // Updater generated without metadata
+            FieldPlan fieldPlan = ClassUpdatePlan.of(targetType).getField(fieldName);
+            return fieldPlan != null ? new GeneratedUpdater.FieldInfo(fieldName, fieldPlan.kind(), fieldPlan.field().getType()) : null;
+        }
+
+        @Override
+        public boolean shouldUpdate(String parentField, String fieldName) {
+            GeneratedUpdater.FieldInfo field = field(fieldName);
+            FieldKind kind = field != null ? field.kind() : FieldKind.SIMPLE;
+            return !shouldSkip(fieldName, kind, include, skip);
+        }
+
+        @Override
+        public Object convert(String fieldName, Object value) {
+            GeneratedUpdater.FieldInfo field = field(fieldName);
+            return field != null ? applyConverters(fieldName, field.type(), value) : value;
+        }
+
+        @Override
+        public boolean accepts(String fieldName, Object newValue) {
+            if (skipNulls && newValue == null) return false;
+            return passesUpdateCondition(fieldName, newValue);
+        }
+
+        @Override
+        public boolean applyStrategy(Object target, String fieldName, Object newValue, UpdateReport report, String parentField) throws IllegalAccessException {
+            FieldUpdateStrategy strategy = fieldStrategies.get(fieldName);
+            if (strategy == null) return false;
+            Field field = GeneratedUpdaters.declaredField(targetType, fieldName);
+            if (field == null) return false;
+            strategyChanged |= UpdatePlan.this.applyStrategy(strategy, field, target, newValue, report, parentField);
+            return true;
+        }
+
+        @Override
+        public String path(String parentField, String fieldName) {
+            return buildFieldPath(parentField, fieldName);
+        }
+
+        @Override
+        public boolean updateValue(Object currentValue, Object newValue, Class<?> type, Consumer<Object> setter,
+                                   UpdateReport report, String fieldPath, int depth) throws IllegalAccessException {
+            FieldAccessor accessor = new SetterAccessor(fieldPath, type, setter);
+            if (newValue instanceof Collection<?> newCol) return updateCollection(accessor, null, currentValue, newCol, report, fieldPath);
+            if (newValue instanceof Map<?, ?> newMap) return updateMap(accessor, null, currentValue, newMap, report, fieldPath);
+            if (isPrimitiveOrWrapperOrString(type) || type.isEnum()) return updateSimple(accessor, null, currentValue, newValue, report, fieldPath);
+
+            String fieldName = fieldPath.substring(fieldPath.lastIndexOf('.') + 1);
+            return updateNested(accessor, null, currentValue, newValue, report, fieldPath, depth,
+                    childCursor(include, fieldName), childCursor(skip, fieldName), visits);
+        }
+    }
+
+    /**
+     * Write-only accessor over a setter supplied by a generated updater.
+     */
+    private record SetterAccessor(String name, Class<?> type, Consumer<Object> setter) implements FieldAccessor {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object get(Object target) {
+            throw new UnsupportedOperationException("Generated field accessor is write-only: " + name);
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            setter.accept(value);
+        }
+    }
+
+    // ---------------------
+    // Helper methods
+    // ---------------------
+
+    /**
+     * Whether a field's values can be used as they are: no converter, condition or strategy applies to it.
+     */
+    boolean isPlain(String fieldName) {
+        if (!fieldConfiguration && converterRegistry.isEmpty()) return true;
+        return converters.isEmpty() && !converterRegistry.hasCandidates(fieldName)
+                && !updateConditions.containsKey(fieldName) && !fieldStrategies.containsKey(fieldName);
+    }
+
+    Object applyConverters(Field field, Object value) {
+        return applyConverters(field.getName(), field.getType(), value);
+    }
+
+    /**
+     * Runs the name-based converters, then the typed chain of the converter registry for the field.
+     */
+    Object applyConverters(String fieldName, Class<?> fieldType, Object value) {
+        Object result = value;
+        try {
+            for (FieldConverter converter : converters) {
+                result = converter.convert(fieldName, result);
+            }
+            if (!converterRegistry.isEmpty()) result = converterRegistry.convert(fieldName, fieldType, result);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to apply converters for field: " + fieldName, e);
+        }
+
+        return result;
+    }
+
+    boolean passesUpdateCondition(String fieldName, Object newValue) {
+        Predicate<Object> condition = updateConditions.get(fieldName);
+        return condition == null || condition.test(newValue);
+    }
+
+    /**
+     * Runs a custom strategy. Strategies only communicate through the report, so without one they get a
+     * throwaway report that is inspected for changes.
+     */
+    private boolean applyStrategy(FieldUpdateStrategy strategy, Field field, Object targetObj, Object newValue,
+                                  UpdateReport report, String parentField) throws IllegalAccessException {
+        UpdateReport sink = report != null ? report : new UpdateReport();
+        int before = sink.size();
+        strategy.apply(targetObj, field, newValue, sink, parentField);
+        return sink.size() != before;
+    }
+
+    static String buildFieldPath(String parentField, String fieldName) {
+        return parentField.isEmpty() ? fieldName : parentField + "." + fieldName;
+    }
+
+    private static boolean updateCollection(FieldAccessor accessor, Object targetObj, Object currentValue, Collection<?> newCol,
+                                            UpdateReport report, String fieldPath) throws IllegalAccessException {
+        if (report == null) {
+            // No report: skip the old-value copy and the diff, leave an equal collection untouched
+            if (Objects.equals(currentValue, newCol)) return false;
+            accessor.set(targetObj, copyOf(newCol));
+            return true;
+        }
+
+        Collection<?> oldCopy = currentValue instanceof Collection<?> oldCol ? copyOf(oldCol) : null;
+        Collection<?> newCopy = copyOf(newCol);
+        accessor.set(targetObj, newCopy);
+        return report.putCollectionChange(fieldPath, oldCopy, newCopy);
+    }
+
+    /**
+     * Copies a collection, keeping set semantics so that set-typed fields stay assignable.
+     */
+    static Collection<?> copyOf(Collection<?> collection) {
+        return collection instanceof Set<?> ? new LinkedHashSet<>(collection) : new ArrayList<>(collection);
+    }
+
+    private static boolean updateMap(FieldAccessor accessor, Object targetObj, Object currentValue, Map<?, ?> newMap,
+                                     UpdateReport report, String fieldPath) throws IllegalAccessException {
+        if (report == null) {
+            if (Objects.equals(currentValue, newMap)) return false;
+            accessor.set(targetObj, new LinkedHashMap<>(newMap));
+            return true;
+        }
+
+        Map<?, ?> oldCopy = currentValue instanceof Map<?, ?> ? new LinkedHashMap<>((Map<?, ?>) currentValue) : null;
+        Map<?, ?> newCopy = new LinkedHashMap<>(newMap);
+        accessor.set(targetObj, newCopy);
+        return report.putMapChange(fieldPath, oldCopy, newCopy);
+    }
+
+    private static boolean updateSimple(FieldAccessor accessor, Object targetObj, Object currentValue, Object newValue,
+                                        UpdateReport report, String fieldPath) throws IllegalAccessException {
+        if (Objects.equals(currentValue, newValue)) return false;
+        accessor.set(targetObj, newValue);
+        if (report != null) report.addChange(fieldPath, currentValue, newValue);
+        return true;
+    }
+
+    private boolean updateNested(FieldAccessor accessor, Object parentObj, Object currentValue, Object newValue,
+                                 UpdateReport report, String fieldPath, int depth,
+                                 PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) throws IllegalAccessException {
+        if (newValue == null) return false;
+
+        ValueConstructor constructor = ValueConstructor.of(currentValue != null ? currentValue.getClass() : accessor.getType());
+        if (constructor != null) {
+            return rebuild(constructor, accessor, parentObj, currentValue, newValue, report, fieldPath, depth + 1, include, skip, visits);
+        }
+
+        boolean created = false;
+        if (currentValue == null) {
+            // A cycle in the updates graph links back to the enclosing target updated from the same object
+            Object linked = visits.enclosingTarget(newValue, include, skip);
+            if (linked != null && accessor.getType().isInstance(linked)) {
+                accessor.set(parentObj, linked);
+                return true;
+            }
+            // Create nested instance if null
+            currentValue = newInstance(accessor, fieldPath);
+            accessor.set(parentObj, currentValue);
+            created = true;
+        }
+
+        // Shared sub-object already updated from the same source, or a back-reference
+        if (!visits.enter(currentValue, newValue, include, skip)) return created;
+
+        if (iterative) {
+            visits.defer(currentValue, newValue, fieldPath, depth + 1, include, skip);
+            return created;
+        }
+        VisitTracker.Visit enclosing = visits.push();
+        boolean changed = updateObject(currentValue, newValue, report, fieldPath, depth + 1, include, skip, visits);
+        visits.pop(enclosing);
+        return changed | created;
+    }
+
+    /**
+     * Merges the updates into the components of a record or final-field value object and sets a new instance,
+     * built through the canonical constructor, only if a component changed. Components follow the plan's paths,
+     * converters and conditions but not its field strategies. Nested values are rebuilt depth-first, also in
+     * iterative mode, since their parent is constructed from them.
+     */
+    private boolean rebuild(ValueConstructor constructor, FieldAccessor accessor, Object parentObj, Object currentValue,
+                            Object newValue, UpdateReport report, String fieldPath, int depth,
+                            PathTrie.Node include, PathTrie.Node skip, VisitTracker visits) throws IllegalAccessException {
+        if (depth > maxDepth || !constructor.type().isInstance(newValue)) return false;
+
+        Object[] values = constructor.values(currentValue);
+        boolean changed = currentValue == null;
+        for (int i = 0; i < constructor.size(); i++) {
+            FieldPlan component = constructor.component(i);
+            if (component.skipped() || shouldSkip(component.name(), component.kind(), include, skip)) continue;
+
+            Object value = applyConverters(component.field(), component.accessor().get(newValue));
+            if (skipNulls && value == null) continue;
+            if (!passesUpdateCondition(component.name(), value)) continue;
+
+            changed |= updateValue(component, constructor.slot(i), values, values[i], value, report,
+                    buildFieldPath(fieldPath, component.name()), depth, include, skip, visits);
+        }
+
+        if (!changed) return false;
+        accessor.set(parentObj, constructor.construct(values));
+        return true;
+    }
+
+    // ---------------------
+    // Path matching
+    // ---------------------
+
+    /**
+     * Whether a field is excluded at the current trie cursors. A {@code null} include cursor means no
+     * include restriction; a partial include match only lets nested objects through, so that their
+     * included descendants can be reached.
+     */
+    boolean shouldSkip(String fieldName, FieldKind kind, PathTrie.Node include, PathTrie.Node skip) {
+        if (skipFields.contains(fieldName)) return true;
+        if (skip != null && PathTrie.descend(skip, fieldName) == PathTrie.ALL) return true;
+
+        if (include != null) {
+            PathTrie.Node next = PathTrie.descend(include, fieldName);
+            if (next == null) return true;
+            return next != PathTrie.ALL && kind != FieldKind.NESTED;
+        }
+
+        return false;
+    }
+
+    static PathTrie.Node childCursor(PathTrie.Node cursor, String fieldName) {
+        return cursor == null ? null : PathTrie.descend(cursor, fieldName);
+    }
+
+    private static <K, V> Map<K, V> immutableCopy(Map<K, V> map) {
+        return map == null || map.isEmpty() ? Map.of() : Collections.unmodifiableMap(new HashMap<>(map));
+    }
+
+    // ======================
+    // Builder
+    // ======================
+
+    public static final class Builder<T> {
+        private final Class<T> type;
+
+        private boolean skipNulls = true;
+        private int maxDepth = Integer.MAX_VALUE;
+        private boolean iterative;
+
+        private final Set<String> skipFields = new HashSet<>();
+        private Set<String> includeFields = null;
+
+        private Map<String, String> fieldMapper = null;
+        private final List<FieldConverter> converters = new ArrayList<>();
+        private final Map<String, Predicate<Object>> updateConditions = new HashMap<>();
+        private final Map<String, FieldUpdateStrategy> fieldStrategies = new HashMap<>();
+        private ConverterRegistry converterRegistry;
+
+        private Builder(Class<T> type) {
+            this.type = type;
+        }
+
+        public Builder<T> skipNulls(boolean skipNulls) {
+            this.skipNulls = skipNulls;
+            return this;
+        }
+
+        public Builder<T> maxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Updates nested objects from an explicit work queue instead of recursing, so that graph depth is
+         * bounded by the heap rather than the thread stack. Changes are then reported level by level instead of
+         * depth-first.
+         */
+        public Builder<T> iterative(boolean iterative) {
+            this.iterative = iterative;
+            return this;
+        }
+
+        public Builder<T> skipFields(String... fields) {
+            if (fields != null) this.skipFields.addAll(Arrays.asList(fields));
+            return this;
+        }
+
+        public Builder<T> includeFields(String... fields) {
+            if (fields != null) this.includeFields = new HashSet<>(Arrays.asList(fields));
+            return this;
+        }
+
+        public Builder<T> fieldMapper(Map<String, String> mapper) {
+            this.fieldMapper = mapper;
+            return this;
+        }
+
+        public Builder<T> resolveFieldMapper() {
+            GeneratedUpdater<Object> generated = GeneratedUpdaters.find(type);
+            this.fieldMapper = generated != null ? generated.fieldLabels() : createFieldMapper(type);
+            return this;
+        }
+
+        public Builder<T> converters(List<FieldConverter> converters) {
+            this.converters.clear();
+            if (converters != null) this.converters.addAll(converters);
+            return this;
+        }
+
+        public Builder<T> registerConverter(FieldConverter converter) {
+            if (converter != null) converters.add(converter);
+            return this;
+        }
+
+        /**
+         * Typed converters for this plan; defaults to {@link ConverterRegistry#global()}.
+         */
+        public Builder<T> converterRegistry(ConverterRegistry registry) {
+            this.converterRegistry = registry;
+            return this;
+        }
+
+        public Builder<T> updateConditions(Map<String, Predicate<Object>> conditions) {
+            this.updateConditions.clear();
+            if (conditions != null) this.updateConditions.putAll(conditions);
+            return this;
+        }
+
+        public Builder<T> updateCondition(String field, Predicate<Object> condition) {
+            if (field != null && condition != null) updateConditions.put(field, condition);
+            return this;
+        }
+
+        public Builder<T> fieldStrategies(Map<String, FieldUpdateStrategy> strategies) {
+            this.fieldStrategies.clear();
+            if (strategies != null) this.fieldStrategies.putAll(strategies);
+            return this;
+        }
+
+        public Builder<T> fieldStrategy(String field, FieldUpdateStrategy strategy) {
+            if (field != null && strategy != null) fieldStrategies.put(field, strategy);
+            return this;
+        }
+
+        public UpdatePlan<T> compile() {
+            return new UpdatePlan<>(type, skipNulls, maxDepth, iterative, skipFields, includeFields, fieldMapper,
+                    converters, updateConditions, fieldStrategies, converterRegistry);
+        }
+    }
+}
@@ -2,23 +2,66 @@ package mn.astvision.commontools.entityupdater;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.bson.Document;
+import org.bson.BSONException;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.json.JsonWriter;
 import org.springframework.data.mongodb.core.query.Update;
 
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Enhanced report for entity updates
+ * Enhanced report for entity updates.
+ * <p>
+ * Changes are kept in an append-only columnar buffer: one slot per field path, with the path, a kind tag and the
+ * old/new values in parallel arrays. Primitive changes keep their raw bits as old/new pairs in a packed
+ * {@code long} array that is only allocated for reports that have any. Paths are interned, so reports of the
+ * same type share their path strings. Collection and map diffs ({@code <field>_diff} entries) are computed on first access and memoized;
+ * field labels are applied when a mapped view or rendering is produced.
  */
-@Getter
 @Slf4j
 public class UpdateReport {
 
-    private final Map<String, Object[]> changes = new LinkedHashMap<>();
-    private final Map<String, Object[]> mappedChanges = new LinkedHashMap<>();
+    private static final int INITIAL_CAPACITY = 8;
+    /**
+     * Reports up to this size find an existing path by a linear scan; larger ones build a hash index.
+     */
+    private static final int LINEAR_SCAN = 8;
+    /**
+     * Paths beyond this are no longer interned, so reports keyed by unbounded paths (e.g. map keys) cannot grow
+     * the shared table without limit.
+     */
+    private static final int MAX_INTERNED_PATHS = 1 << 14;
+    private static final Map<String, String> PATHS = new ConcurrentHashMap<>();
+
+    // Slot tags; primitive slots are tagged PRIMITIVE + kind ordinal
+    private static final byte VALUE = 0;
+    private static final byte COLLECTION = 1;
+    private static final byte MAP = 2;
+    private static final byte PRIMITIVE = 3;
+    private static final PrimitiveAccess.Kind[] KINDS = PrimitiveAccess.Kind.values();
+
+    private int size;
+    private String[] paths;
+    private byte[] tags;
+    private Object[] oldValues;
+    private Object[] newValues;
+    // Primitive slots: offset of their old/new pair in bits
+    private int[] bitsAt;
+    private long[] bits;
+    private int bitsSize;
+    // Memoized diffs and list edit scripts, allocated on first use
+    private Object[] diffs;
+    private Object[] edits;
+    // Open-addressing table of slot + 1 by path hash
+    private int[] index;
+
+    @Getter
     private Map<String, String> fieldMapper = new HashMap<>();
 
     // ======================
@@ -26,9 +69,59 @@ public class UpdateReport {
     // ======================
 
     public void addChange(String field, Object oldValue, Object newValue) {
-        changes.put(field, new Object[]{oldValue, newValue});
-        String mappedName = fieldMapper.getOrDefault(field, field);
-        mappedChanges.put(mappedName, new Object[]{oldValue, newValue});
+        put(field, VALUE, oldValue, newValue);
+    }
+
+    // Primitive changes are stored as raw bits and boxed only when read
+
+    public void addChange(String field, boolean oldValue, boolean newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.BOOLEAN, oldValue ? 1 : 0, newValue ? 1 : 0);
+    }
+
+    public void addChange(String field, char oldValue, char newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.CHAR, oldValue, newValue);
+    }
+
+    public void addChange(String field, byte oldValue, byte newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.BYTE, oldValue, newValue);
+    }
+
+    public void addChange(String field, short oldValue, short newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.SHORT, oldValue, newValue);
+    }
+
+    public void addChange(String field, int oldValue, int newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.INT, oldValue, newValue);
+    }
+
+    public void addChange(String field, long oldValue, long newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.LONG, oldValue, newValue);
+    }
+
+    public void addChange(String field, float oldValue, float newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.FLOAT, Float.floatToRawIntBits(oldValue), Float.floatToRawIntBits(newValue));
+    }
+
+    public void addChange(String field, double oldValue, double newValue) {
+        addPrimitiveChange(field, PrimitiveAccess.Kind.DOUBLE, Double.doubleToRawLongBits(oldValue), Double.doubleToRawLongBits(newValue));
+    }
+
+    void addPrimitiveChange(String field, PrimitiveAccess.Kind kind, long oldBits, long newBits) {
+        int slot = slot(field);
+        if (tags[slot] < PRIMITIVE) {
+            // A slot that was primitive before keeps its pair
+            if (bits == null) {
+                bitsAt = new int[paths.length];
+                bits = new long[INITIAL_CAPACITY];
+            } else if (bitsSize == bits.length) {
+                bits = Arrays.copyOf(bits, bitsSize * 2);
+            }
+            bitsAt[slot] = bitsSize;
+            bitsSize += 2;
+        }
+        tags[slot] = (byte) (PRIMITIVE + kind.ordinal());
+        bits[bitsAt[slot]] = oldBits;
+        bits[bitsAt[slot] + 1] = newBits;
     }
 
     public void addNestedChange(String parentField, String childField, Object oldValue, Object newValue) {
@@ -36,16 +129,114 @@ public class UpdateReport {
         addChange(fullField, oldValue, newValue);
     }
 
+    /**
+     * Appends all changes of another report, in its order.
+     */
+    void addAll(UpdateReport other) {
+        for (int i = 0; i < other.size; i++) {
+            byte tag = other.tags[i];
+            if (tag >= PRIMITIVE) {
+                int at = other.bitsAt[i];
+                addPrimitiveChange(other.paths[i], KINDS[tag - PRIMITIVE], other.bits[at], other.bits[at + 1]);
+            } else {
+                put(other.paths[i], tag, other.oldValues[i], other.newValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * All changes keyed by field path, including a {@code <field>_diff} entry after each collection or map
+     * change whose diff is not empty. The map is built on each call.
+     */
+    public Map<String, Object[]> getChanges() {
+        Map<String, Object[]> view = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            view.put(paths[i], new Object[]{oldValue(i), newValue(i)});
+            Map<String, Object> diff = diff(i);
+            if (!diff.isEmpty()) view.put(paths[i] + "_diff", new Object[]{null, diff});
+        }
+        return view;
+    }
+
+    /**
+     * Same as {@link #getChanges()}, keyed by field label where the field mapper has one.
+     */
+    public Map<String, Object[]> getMappedChanges() {
+        Map<String, Object[]> view = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            view.put(label(paths[i]), new Object[]{oldValue(i), newValue(i)});
+            Map<String, Object> diff = diff(i);
+            if (!diff.isEmpty()) view.put(label(paths[i] + "_diff"), new Object[]{null, diff});
+        }
+        return view;
+    }
+
+    /**
+     * Diff of a collection or map change ({@code added}/{@code removed}, plus {@code moved} for lists, or
+     * {@code addedKeys}/{@code removedKeys}/{@code changedValues}); empty for plain changes and unknown fields.
+     */
+    public Map<String, Object> getDiff(String field) {
+        int slot = find(field);
+        return slot >= 0 ? diff(slot) : Collections.emptyMap();
+    }
+
+    /**
+     * Ordered insert/delete/move edit script of a list change; empty for other changes and unknown fields.
+     */
+    public List<ListDiff.Edit> getListEdits(String field) {
+        int slot = find(field);
+        return slot >= 0 && isOrdered(slot) ? edits(slot) : Collections.emptyList();
+    }
+
     // ======================
     // Collection diff tracking
     // ======================
 
     public void addCollectionChange(String field, Collection<?> oldValue, Collection<?> newValue) {
-        Map<String, Object> diff = diffCollections(oldValue, newValue);
-        if (!diff.isEmpty()) {
-            addChange(field, oldValue, newValue);
-            changes.put(field + "_diff", new Object[]{null, diff});
+        putCollectionChange(field, oldValue, newValue);
+    }
+
+    /**
+     * Same as {@link #addCollectionChange}, reporting whether the values differ and a change was recorded.
+     */
+    boolean putCollectionChange(String field, Collection<?> oldValue, Collection<?> newValue) {
+        if (Objects.equals(oldValue, newValue) || (isEmpty(oldValue) && isEmpty(newValue))) return false;
+        put(field, COLLECTION, oldValue, newValue);
+        return true;
+    }
+
+    private static boolean isEmpty(Collection<?> value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Ordered list diff: inserted and deleted values keep their duplicates, reordered elements are listed as moves.
+     */
+    private static Map<String, Object> diffLists(List<ListDiff.Edit> edits) {
+        List<Object> added = new ArrayList<>();
+        List<Object> removed = new ArrayList<>();
+        List<ListDiff.Edit> moved = new ArrayList<>();
+        for (ListDiff.Edit edit : edits) {
+            switch (edit.type()) {
+                case INSERT -> added.add(edit.value());
+                case DELETE -> removed.add(edit.value());
+                case MOVE -> moved.add(edit);
+            }
         }
+
+        Map<String, Object> diff = new LinkedHashMap<>();
+        if (!added.isEmpty()) diff.put("added", added);
+        if (!removed.isEmpty()) diff.put("removed", removed);
+        if (!moved.isEmpty()) diff.put("moved", moved);
+        return diff;
     }
 
     private static Map<String, Object> diffCollections(Collection<?> oldValue, Collection<?> newValue) {
@@ -69,11 +260,20 @@ public class UpdateReport {
     // ======================
 
     public void addMapChange(String field, Map<?, ?> oldValue, Map<?, ?> newValue) {
-        Map<String, Object> diff = diffMaps(oldValue, newValue);
-        if (!diff.isEmpty()) {
-            addChange(field, oldValue, newValue);
-            changes.put(field + "_diff", new Object[]{null, diff});
-        }
+        putMapChange(field, oldValue, newValue);
+    }
+
+    /**
+     * Same as {@link #addMapChange}, reporting whether the values differ and a change was recorded.
+     */
+    boolean putMapChange(String field, Map<?, ?> oldValue, Map<?, ?> newValue) {
+        if (Objects.equals(oldValue, newValue) || (isEmpty(oldValue) && isEmpty(newValue))) return false;
+        put(field, MAP, oldValue, newValue);
+        return true;
+    }
+
+    private static boolean isEmpty(Map<?, ?> value) {
+        return value == null || value.isEmpty();
     }
 
     private static Map<String, Object> diffMaps(Map<?, ?> oldValue, Map<?, ?> newValue) {
@@ -115,15 +315,10 @@ public class UpdateReport {
 
     public void setFieldMapper(Map<String, String> mapper) {
         this.fieldMapper = mapper != null ? mapper : new HashMap<>();
-        rebuildMappedChanges();
     }
 
-    private void rebuildMappedChanges() {
-        mappedChanges.clear();
-        for (Map.Entry<String, Object[]> entry : changes.entrySet()) {
-            String mappedName = fieldMapper.getOrDefault(entry.getKey(), entry.getKey());
-            mappedChanges.put(mappedName, entry.getValue());
-        }
+    private String label(String field) {
+        return fieldMapper.getOrDefault(field, field);
     }
 
     // ======================
@@ -132,18 +327,26 @@ public class UpdateReport {
 
     public Update toMongoUpdate() {
         Update update = new Update();
-        for (Map.Entry<String, Object[]> entry : changes.entrySet()) {
-            String field = entry.getKey();
-            if (field.endsWith("_diff")) continue;
+        // Diffs are never needed here, so the columns are read directly
+        for (int i = 0; i < size; i++) {
+            MongoUpdateOperators.set(update, paths[i], newValue(i));
+        }
+        return update;
+    }
 
-            Object newValue = entry.getValue()[1];
-            if (newValue == null) update.unset(field);
-            else {
-                if (newValue instanceof LocalDate)
-                    newValue = Date.from(((LocalDate) newValue).atStartOfDay(ZoneId.systemDefault()).toInstant());
-                else if (newValue instanceof LocalDateTime)
-                    newValue = Date.from(((LocalDateTime) newValue).atZone(ZoneId.systemDefault()).toInstant());
-                update.set(field, newValue);
+    /**
+     * Like {@link #toMongoUpdate()}, but writes collection and map changes as minimal operators
+     * ({@code $push}, {@code $pullAll}, {@code $addToSet}, dotted {@code $set}/{@code $unset}) instead of
+     * replacing the whole value. Falls back to a full {@code $set} per field when that is smaller.
+     */
+    public Update toGranularMongoUpdate() {
+        Update update = new Update();
+        for (int i = 0; i < size; i++) {
+            switch (tags[i]) {
+                case COLLECTION -> MongoUpdateOperators.collection(update, paths[i], (Collection<?>) oldValues[i], (Collection<?>) newValues[i],
+                        isOrdered(i) ? edits(i) : null);
+                case MAP -> MongoUpdateOperators.map(update, paths[i], (Map<?, ?>) oldValues[i], (Map<?, ?>) newValues[i]);
+                default -> MongoUpdateOperators.set(update, paths[i], newValue(i));
             }
         }
         return update;
@@ -151,70 +354,358 @@ public class UpdateReport {
 
     public String toMongoUpdateQueryJson() {
         try {
-            if (changes.isEmpty()) return "{}";
-            Document doc = toMongoUpdate().getUpdateObject();
-            return doc.toJson();
+            if (size == 0) return "{}";
+            StringWriter json = new StringWriter();
+            writeBsonUpdate(new JsonWriter(json), MongoUpdateOperators.DEFAULT_REGISTRY);
+            return json.toString();
         } catch (Exception e) {
             log.error("Failed to build Mongo Update JSON", e);
             return "{}";
         }
     }
 
+    /**
+     * Streams the JSON of {@link #toMongoUpdateQueryJson()} to the writer; values are encoded straight into it.
+     */
+    public void writeMongoUpdateJsonTo(Writer out) throws IOException {
+        try {
+            writeBsonUpdate(new JsonWriter(out), MongoUpdateOperators.DEFAULT_REGISTRY);
+        } catch (BSONException e) {
+            // JsonWriter wraps the writer's IOExceptions
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes the {@code $set}/{@code $unset} update of {@link #toMongoUpdate()} straight to BSON, ready to be
+     * handed to the driver. Temporal values are stored in the system time zone, as Spring does.
+     */
+    public RawBsonDocument toBsonUpdate() {
+        return toBsonUpdate(MongoUpdateOperators.DEFAULT_REGISTRY);
+    }
+
+    /**
+     * Same as {@link #toBsonUpdate()} with values encoded by the given registry, e.g.
+     * {@code mongoTemplate.getDb().getCodecRegistry()}.
+     */
+    public RawBsonDocument toBsonUpdate(CodecRegistry registry) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writeBsonUpdate(writer, registry);
+        }
+        return new RawBsonDocument(buffer.getInternalBuffer(), 0, buffer.getPosition());
+    }
+
+    /**
+     * Writes the BSON of {@link #toBsonUpdate(CodecRegistry)} to the stream, e.g. for appending update records
+     * to an export file.
+     */
+    public void writeBsonUpdateTo(OutputStream out, CodecRegistry registry) throws IOException {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer();
+             BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writeBsonUpdate(writer, registry);
+            buffer.pipe(out);
+        }
+    }
+
+    /**
+     * Writes the update document to any {@link BsonWriter} without building an intermediate {@code Document}.
+     */
+    public void writeBsonUpdate(BsonWriter writer, CodecRegistry registry) {
+        writer.writeStartDocument();
+
+        boolean started = false;
+        for (int i = 0; i < size; i++) {
+            if (isUnset(i)) continue;
+            if (!started) {
+                writer.writeStartDocument("$set");
+                started = true;
+            }
+            writer.writeName(paths[i]);
+            if (tags[i] >= PRIMITIVE) KINDS[tags[i] - PRIMITIVE].write(writer, bits[bitsAt[i] + 1]);
+            else MongoUpdateOperators.writeValue(writer, newValues[i], registry);
+        }
+        if (started) writer.writeEndDocument();
+
+        started = false;
+        for (int i = 0; i < size; i++) {
+            if (!isUnset(i)) continue;
+            if (!started) {
+                writer.writeStartDocument("$unset");
+                started = true;
+            }
+            writer.writeInt32(paths[i], 1);
+        }
+        if (started) writer.writeEndDocument();
+
+        writer.writeEndDocument();
+    }
+
     // ======================
     // String & HTML renderers
     // ======================
 
-    public String toMappedString() {
-        rebuildMappedChanges();
-        if (mappedChanges.isEmpty()) return "Update Report: None";
+    // The String renderers wrap the streaming ones; rendering many reports should write to one sink instead
 
+    public String toMappedString() {
         StringBuilder sb = new StringBuilder();
-        mappedChanges.forEach((field, vals) -> {
-            if (field.endsWith("_diff")) sb.append(field).append(": ").append(vals[1]).append("\n");
-            else sb.append(field).append(": ").append(vals[0]).append(" -> ").append(vals[1]).append("\n");
-        });
+        try {
+            writeMappedTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return sb.toString();
     }
 
     public String toMappedHtmlFallback() {
-        rebuildMappedChanges();
-        if (mappedChanges.isEmpty()) return "<div>Update Report: <em>None</em></div>";
-
-        StringBuilder sb = new StringBuilder("<div class=\"update-report\">");
-        mappedChanges.forEach((field, vals) -> {
-            String safeField = escapeHtml(field);
-            String from = vals != null && vals.length > 0 ? escapeHtml(String.valueOf(vals[0])) : "";
-            String to = vals != null && vals.length > 1 ? escapeHtml(String.valueOf(vals[1])) : "";
-            sb.append("<div class=\"update-line\"><strong>").append(safeField).append("</strong>: ")
-                    .append(from).append(" &rarr; ").append(to)
-                    .append("</div>");
-        });
-        sb.append("</div>");
-        return sb.toString();
-    }
-
-    private static String escapeHtml(String s) {
-        if (s == null) return "";
-        StringBuilder out = new StringBuilder(Math.max(16, s.length()));
-        for (char c : s.toCharArray()) {
-            switch (c) {
-                case '<' -> out.append("&lt;");
-                case '>' -> out.append("&gt;");
-                case '&' -> out.append("&amp;");
-                case '"' -> out.append("&quot;");
-                case '\'' -> out.append("&#x27;");
-                case '/' -> out.append("&#x2F;");
-                default -> out.append(c);
-            }
+        StringWriter html = new StringWriter();
+        try {
+            writeHtmlTo(html);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return out.toString();
+        return html.toString();
     }
 
     @Override
     public String toString() {
-        if (changes.isEmpty()) return "Update Report: None";
         StringBuilder sb = new StringBuilder();
-        changes.forEach((field, vals) -> sb.append(field).append(": ").append(vals[0]).append(" -> ").append(vals[1]).append("\n"));
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return sb.toString();
     }
+
+    /**
+     * Writes the {@link #toString()} rendering ({@code field: old -> new} lines) to the sink.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        writeText(out, false);
+    }
+
+    /**
+     * Writes the {@link #toMappedString()} rendering, with field labels, to the sink.
+     */
+    public void writeMappedTo(Appendable out) throws IOException {
+        writeText(out, true);
+    }
+
+    private void writeText(Appendable out, boolean mapped) throws IOException {
+        if (size == 0) {
+            out.append("Update Report: None");
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            out.append(mapped ? label(paths[i]) : paths[i]).append(": ");
+            appendValue(out, oldValue(i));
+            out.append(" -> ");
+            appendValue(out, newValue(i));
+            out.append('\n');
+
+            Map<String, Object> diff = diff(i);
+            if (diff.isEmpty()) continue;
+            if (mapped) out.append(label(paths[i] + "_diff")).append(": ");
+            else out.append(paths[i]).append("_diff: null -> ");
+            appendValue(out, diff);
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Writes the {@link #toMappedHtmlFallback()} rendering to the writer, escaping labels and values as they
+     * are written.
+     */
+    public void writeHtmlTo(Writer out) throws IOException {
+        if (size == 0) {
+            out.write("<div>Update Report: <em>None</em></div>");
+            return;
+        }
+        out.write("<div class=\"update-report\">");
+        for (int i = 0; i < size; i++) {
+            writeHtmlLine(out, label(paths[i]), oldValue(i), newValue(i));
+            Map<String, Object> diff = diff(i);
+            if (!diff.isEmpty()) writeHtmlLine(out, label(paths[i] + "_diff"), null, diff);
+        }
+        out.write("</div>");
+    }
+
+    private static void writeHtmlLine(Writer out, String field, Object from, Object to) throws IOException {
+        out.write("<div class=\"update-line\"><strong>");
+        escapeHtml(field, out);
+        out.write("</strong>: ");
+        escapeHtml(from instanceof CharSequence text ? text : String.valueOf(from), out);
+        out.write(" &rarr; ");
+        escapeHtml(to instanceof CharSequence text ? text : String.valueOf(to), out);
+        out.write("</div>");
+    }
+
+    private static void appendValue(Appendable out, Object value) throws IOException {
+        out.append(value instanceof CharSequence text ? text : String.valueOf(value));
+    }
+
+    /**
+     * Copies runs of safe characters to the writer in one call and replaces the others by their entities.
+     */
+    private static void escapeHtml(CharSequence s, Writer out) throws IOException {
+        if (s == null) return;
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            String entity = switch (s.charAt(i)) {
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '&' -> "&amp;";
+                case '"' -> "&quot;";
+                case '\'' -> "&#x27;";
+                case '/' -> "&#x2F;";
+                default -> null;
+            };
+            if (entity == null) continue;
+            if (i > start) out.append(s, start, i);
+            out.write(entity);
+            start = i + 1;
+        }
+        if (start < s.length()) out.append(s, start, s.length());
+    }
+
+    // ======================
+    // Columnar storage
+    // ======================
+
+    private void put(String field, byte tag, Object oldValue, Object newValue) {
+        int slot = slot(field);
+        tags[slot] = tag;
+        oldValues[slot] = oldValue;
+        newValues[slot] = newValue;
+    }
+
+    /**
+     * Slot of the path, appended if the path is new. An existing slot is cleared but keeps its tag until the
+     * caller sets the new one, so the last change of a path wins and keeps its first position.
+     */
+    private int slot(String field) {
+        int slot = find(field);
+        if (slot < 0) {
+            if (paths == null || size == paths.length) grow();
+            slot = size++;
+            paths[slot] = intern(field);
+            indexSlot(slot);
+        } else {
+            oldValues[slot] = null;
+            newValues[slot] = null;
+            if (diffs != null) diffs[slot] = null;
+            if (edits != null) edits[slot] = null;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = paths == null ? INITIAL_CAPACITY : paths.length * 2;
+        paths = paths == null ? new String[capacity] : Arrays.copyOf(paths, capacity);
+        tags = tags == null ? new byte[capacity] : Arrays.copyOf(tags, capacity);
+        oldValues = oldValues == null ? new Object[capacity] : Arrays.copyOf(oldValues, capacity);
+        newValues = newValues == null ? new Object[capacity] : Arrays.copyOf(newValues, capacity);
+        if (bitsAt != null) bitsAt = Arrays.copyOf(bitsAt, capacity);
+        if (diffs != null) diffs = Arrays.copyOf(diffs, capacity);
+        if (edits != null) edits = Arrays.copyOf(edits, capacity);
+    }
+
+    private static String intern(String path) {
+        String canonical = PATHS.get(path);
+        if (canonical != null) return canonical;
+        if (PATHS.size() >= MAX_INTERNED_PATHS) return path;
+        canonical = PATHS.putIfAbsent(path, path);
+        return canonical != null ? canonical : path;
+    }
+
+    private int find(String field) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (paths[i] == field || paths[i].equals(field)) return i;
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int h = hash(field) & mask; ; h = (h + 1) & mask) {
+            int entry = index[h];
+            if (entry == 0) return -1;
+            if (paths[entry - 1].equals(field)) return entry - 1;
+        }
+    }
+
+    private void indexSlot(int slot) {
+        if (index == null) {
+            if (size > LINEAR_SCAN) rebuildIndex(Integer.highestOneBit(size) << 1);
+        } else if (size * 4 > index.length * 3) {
+            rebuildIndex(index.length * 2);
+        } else {
+            insertIndex(slot);
+        }
+    }
+
+    private void rebuildIndex(int capacity) {
+        index = new int[capacity];
+        for (int i = 0; i < size; i++) insertIndex(i);
+    }
+
+    private void insertIndex(int slot) {
+        int mask = index.length - 1;
+        int h = hash(paths[slot]) & mask;
+        while (index[h] != 0) h = (h + 1) & mask;
+        index[h] = slot + 1;
+    }
+
+    private static int hash(String field) {
+        int h = field.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Object oldValue(int slot) {
+        byte tag = tags[slot];
+        return tag >= PRIMITIVE ? KINDS[tag - PRIMITIVE].box(bits[bitsAt[slot]]) : oldValues[slot];
+    }
+
+    private Object newValue(int slot) {
+        byte tag = tags[slot];
+        return tag >= PRIMITIVE ? KINDS[tag - PRIMITIVE].box(bits[bitsAt[slot] + 1]) : newValues[slot];
+    }
+
+    private boolean isUnset(int slot) {
+        return tags[slot] < PRIMITIVE && newValues[slot] == null;
+    }
+
+    private boolean isOrdered(int slot) {
+        return tags[slot] == COLLECTION
+                && (oldValues[slot] == null || oldValues[slot] instanceof List<?>)
+                && (newValues[slot] == null || newValues[slot] instanceof List<?>);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> diff(int slot) {
+        byte tag = tags[slot];
+        if (tag != COLLECTION && tag != MAP) return Collections.emptyMap();
+
+        if (diffs == null) diffs = new Object[paths.length];
+        Map<String, Object> diff = (Map<String, Object>) diffs[slot];
+        if (diff == null) {
+            if (tag == MAP) diff = diffMaps((Map<?, ?>) oldValues[slot], (Map<?, ?>) newValues[slot]);
+            else if (isOrdered(slot)) diff = diffLists(edits(slot));
+            else diff = diffCollections((Collection<?>) oldValues[slot], (Collection<?>) newValues[slot]);
+            diffs[slot] = diff;
+        }
+        return diff;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ListDiff.Edit> edits(int slot) {
+        if (edits == null) edits = new Object[paths.length];
+        List<ListDiff.Edit> script = (List<ListDiff.Edit>) edits[slot];
+        if (script == null) {
+            script = ListDiff.diff((List<?>) oldValues[slot], (List<?>) newValues[slot]);
+            edits[slot] = script;
+        }
+        return script;
+    }
 }
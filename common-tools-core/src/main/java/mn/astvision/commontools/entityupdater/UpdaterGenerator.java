@@ -0,0 +1,229 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldKind;
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldPlan;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import static org.springframework.asm.Opcodes.*;
+
+/**
+ * Generates {@link SpecializedUpdater} implementations as hidden nestmate classes of the entity type.
+ * <p>
+ * Being a nestmate, the generated class reads and writes the entity's own fields with plain
+ * {@code getfield}/{@code putfield} instructions. Fields it cannot reach that way (inherited from another
+ * nest, final, static or non-simple) are delegated to {@link SpecializedUpdater.Fallback}.
+ */
+final class UpdaterGenerator {
+
+    private static final String UPDATER = Type.getInternalName(SpecializedUpdater.class);
+    private static final String FALLBACK = Type.getInternalName(SpecializedUpdater.Fallback.class);
+    private static final String REPORT = Type.getInternalName(UpdateReport.class);
+
+    // Local variable slots of the generated update method
+    private static final int TARGET = 1, UPDATES = 2, MODES = 3, REPORT_VAR = 4, FALLBACK_VAR = 5;
+    private static final int TYPED_TARGET = 6, TYPED_UPDATES = 7, NEW_VALUE = 8, OLD_VALUE = 10, MODE = 12, CHANGED = 13;
+
+    private UpdaterGenerator() {
+    }
+
+    static SpecializedUpdater generate(ClassUpdatePlan plan) throws Throwable {
+        Class<?> type = plan.getType();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+
+        byte[] bytecode = generateBytecode(type, plan.getUpdatableFields());
+        MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytecode, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+        return (SpecializedUpdater) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+    }
+
+    static boolean isDirectlyAccessible(Class<?> type, FieldPlan fieldPlan) {
+        Field field = fieldPlan.field();
+        int modifiers = field.getModifiers();
+        return fieldPlan.kind() == FieldKind.SIMPLE
+                && !Modifier.isStatic(modifiers)
+                && !Modifier.isFinal(modifiers)
+                && field.getDeclaringClass().getNestHost() == type.getNestHost();
+    }
+
+    private static byte[] generateBytecode(Class<?> type, List<FieldPlan> fields) {
+        String owner = Type.getInternalName(type);
+        String className = owner + "$$SpecializedUpdater";
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // Only Object-typed locals are ever merged; avoid loading classes during generation
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, "java/lang/Object", new String[]{UPDATER});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        String descriptor = "(Ljava/lang/Object;Ljava/lang/Object;[BL" + REPORT + ";L" + FALLBACK + ";)Z";
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "update", descriptor, null, new String[]{"java/lang/IllegalAccessException"});
+        mv.visitCode();
+
+        mv.visitVarInsn(ALOAD, TARGET);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, TYPED_TARGET);
+        mv.visitVarInsn(ALOAD, UPDATES);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, TYPED_UPDATES);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, CHANGED);
+
+        for (int i = 0; i < fields.size(); i++) {
+            FieldPlan fieldPlan = fields.get(i);
+            Label next = new Label();
+
+            mv.visitVarInsn(ALOAD, MODES);
+            pushInt(mv, i);
+            mv.visitInsn(BALOAD);
+            mv.visitVarInsn(ISTORE, MODE);
+
+            mv.visitVarInsn(ILOAD, MODE);
+            mv.visitJumpInsn(IFEQ, next);
+
+            if (isDirectlyAccessible(type, fieldPlan)) {
+                Label plain = new Label();
+                mv.visitVarInsn(ILOAD, MODE);
+                pushInt(mv, SpecializedUpdater.PLAIN);
+                mv.visitJumpInsn(IF_ICMPGE, plain);
+                emitFallback(mv, i);
+                mv.visitJumpInsn(GOTO, next);
+
+                mv.visitLabel(plain);
+                emitDirectCopy(mv, fieldPlan.field(), i, next);
+            } else {
+                emitFallback(mv, i);
+            }
+
+            mv.visitLabel(next);
+        }
+
+        mv.visitVarInsn(ILOAD, CHANGED);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void emitFallback(MethodVisitor mv, int index) {
+        // changed |= fallback.updateField(i)
+        mv.visitVarInsn(ILOAD, CHANGED);
+        mv.visitVarInsn(ALOAD, FALLBACK_VAR);
+        pushInt(mv, index);
+        mv.visitMethodInsn(INVOKEINTERFACE, FALLBACK, "updateField", "(I)Z", true);
+        mv.visitInsn(IOR);
+        mv.visitVarInsn(ISTORE, CHANGED);
+    }
+
+    private static void emitDirectCopy(MethodVisitor mv, Field field, int index, Label next) {
+        String owner = Type.getInternalName(field.getDeclaringClass());
+        Type fieldType = Type.getType(field.getType());
+        String desc = fieldType.getDescriptor();
+
+        // newValue = updates.field
+        mv.visitVarInsn(ALOAD, TYPED_UPDATES);
+        mv.visitFieldInsn(GETFIELD, owner, field.getName(), desc);
+        mv.visitVarInsn(fieldType.getOpcode(ISTORE), NEW_VALUE);
+
+        if (fieldType.getSort() == Type.OBJECT || fieldType.getSort() == Type.ARRAY) {
+            Label notNull = new Label();
+            mv.visitVarInsn(ILOAD, MODE);
+            pushInt(mv, SpecializedUpdater.PLAIN_SKIP_NULLS);
+            mv.visitJumpInsn(IF_ICMPNE, notNull);
+            mv.visitVarInsn(ALOAD, NEW_VALUE);
+            mv.visitJumpInsn(IFNULL, next);
+            mv.visitLabel(notNull);
+        }
+
+        // oldValue = target.field
+        mv.visitVarInsn(ALOAD, TYPED_TARGET);
+        mv.visitFieldInsn(GETFIELD, owner, field.getName(), desc);
+        mv.visitVarInsn(fieldType.getOpcode(ISTORE), OLD_VALUE);
+
+        // if (equals(oldValue, newValue)) skip
+        emitEqualsJump(mv, fieldType, next);
+
+        // target.field = newValue
+        mv.visitVarInsn(ALOAD, TYPED_TARGET);
+        mv.visitVarInsn(fieldType.getOpcode(ILOAD), NEW_VALUE);
+        mv.visitFieldInsn(PUTFIELD, owner, field.getName(), desc);
+        mv.visitInsn(ICONST_1);
+        mv.visitVarInsn(ISTORE, CHANGED);
+
+        // if (report != null) report.addChange(fallback.path(i), oldValue, newValue)
+        mv.visitVarInsn(ALOAD, REPORT_VAR);
+        mv.visitJumpInsn(IFNULL, next);
+        mv.visitVarInsn(ALOAD, REPORT_VAR);
+        mv.visitVarInsn(ALOAD, FALLBACK_VAR);
+        pushInt(mv, index);
+        mv.visitMethodInsn(INVOKEINTERFACE, FALLBACK, "path", "(I)Ljava/lang/String;", true);
+        mv.visitVarInsn(fieldType.getOpcode(ILOAD), OLD_VALUE);
+        mv.visitVarInsn(fieldType.getOpcode(ILOAD), NEW_VALUE);
+        // Primitives go to the matching unboxed overload
+        String valueDesc = fieldType.getSort() == Type.OBJECT || fieldType.getSort() == Type.ARRAY ? "Ljava/lang/Object;" : desc;
+        mv.visitMethodInsn(INVOKEVIRTUAL, REPORT, "addChange", "(Ljava/lang/String;" + valueDesc + valueDesc + ")V", false);
+    }
+
+    /**
+     * Jumps to {@code equal} when old and new values are equal under {@link java.util.Objects#equals} of their boxed forms.
+     */
+    private static void emitEqualsJump(MethodVisitor mv, Type fieldType, Label equal) {
+        mv.visitVarInsn(fieldType.getOpcode(ILOAD), OLD_VALUE);
+        switch (fieldType.getSort()) {
+            case Type.BOOLEAN, Type.CHAR, Type.BYTE, Type.SHORT, Type.INT -> {
+                mv.visitVarInsn(ILOAD, NEW_VALUE);
+                mv.visitJumpInsn(IF_ICMPEQ, equal);
+            }
+            case Type.LONG -> {
+                mv.visitVarInsn(LLOAD, NEW_VALUE);
+                mv.visitInsn(LCMP);
+                mv.visitJumpInsn(IFEQ, equal);
+            }
+            case Type.FLOAT -> {
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "floatToIntBits", "(F)I", false);
+                mv.visitVarInsn(FLOAD, NEW_VALUE);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "floatToIntBits", "(F)I", false);
+                mv.visitJumpInsn(IF_ICMPEQ, equal);
+            }
+            case Type.DOUBLE -> {
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+                mv.visitVarInsn(DLOAD, NEW_VALUE);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+                mv.visitInsn(LCMP);
+                mv.visitJumpInsn(IFEQ, equal);
+            }
+            default -> {
+                mv.visitVarInsn(ALOAD, NEW_VALUE);
+                mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "equals", "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(IFNE, equal);
+            }
+        }
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) mv.visitInsn(ICONST_0 + value);
+        else if (value <= Byte.MAX_VALUE) mv.visitIntInsn(BIPUSH, value);
+        else if (value <= Short.MAX_VALUE) mv.visitIntInsn(SIPUSH, value);
+        else mv.visitLdcInsn(value);
+    }
+}
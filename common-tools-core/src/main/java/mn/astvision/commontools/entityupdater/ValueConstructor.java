@@ -0,0 +1,187 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldPlan;
+import mn.astvision.commontools.entityupdater.interfaces.FieldAccessor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Canonical constructor of an immutable type, so that it can be rebuilt instead of mutated.
+ * <p>
+ * Records use their canonical constructor. Other user classes qualify when every instance field is final and a
+ * constructor takes exactly the field types in field order, as generated by Lombok's {@code @Value} or
+ * {@code @AllArgsConstructor}. The constructor is cached per class as a {@link MethodHandle} spread over an
+ * {@code Object[]} of component values.
+ */
+final class ValueConstructor {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private static final ClassValue<Optional<ValueConstructor>> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Optional<ValueConstructor> computeValue(Class<?> type) {
+            return Optional.ofNullable(resolve(type));
+        }
+    };
+
+    private final Class<?> type;
+    private final FieldPlan[] components;
+    private final Slot[] slots;
+    private final Object[] defaults;
+    private final MethodHandle constructor;
+
+    private ValueConstructor(Class<?> type, FieldPlan[] components, MethodHandle constructor) {
+        this.type = type;
+        this.components = components;
+        this.constructor = constructor;
+        this.slots = new Slot[components.length];
+        this.defaults = new Object[components.length];
+        for (int i = 0; i < components.length; i++) {
+            Class<?> componentType = components[i].field().getType();
+            slots[i] = new Slot(components[i].name(), componentType, i);
+            if (componentType.isPrimitive()) defaults[i] = Array.get(Array.newInstance(componentType, 1), 0);
+        }
+    }
+
+    /**
+     * @return {@code null} unless the type is a record or a final-field value class with an accessible
+     * canonical constructor
+     */
+    static ValueConstructor of(Class<?> type) {
+        return CONSTRUCTORS.get(type).orElse(null);
+    }
+
+    private static ValueConstructor resolve(Class<?> type) {
+        if (type.isRecord()) {
+            ClassUpdatePlan plan = ClassUpdatePlan.of(type);
+            RecordComponent[] recordComponents = type.getRecordComponents();
+            FieldPlan[] components = new FieldPlan[recordComponents.length];
+            Class<?>[] parameterTypes = new Class<?>[recordComponents.length];
+            for (int i = 0; i < components.length; i++) {
+                components[i] = plan.getField(recordComponents[i].getName());
+                parameterTypes[i] = recordComponents[i].getType();
+            }
+            return create(type, components, parameterTypes);
+        }
+
+        if (!ReflectionUtil.isUserClass(type) || type.isInterface() || type.isArray() || type.isPrimitive()
+                || Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        List<FieldPlan> fields = ClassUpdatePlan.of(type).getCopyableFields();
+        if (fields.isEmpty()) return null;
+        Class<?>[] parameterTypes = new Class<?>[fields.size()];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            FieldPlan field = fields.get(i);
+            // Inner classes hold their outer instance in a synthetic field
+            if (!field.finalField() || field.field().isSynthetic()) return null;
+            parameterTypes[i] = field.field().getType();
+        }
+        return create(type, fields.toArray(new FieldPlan[0]), parameterTypes);
+    }
+
+    private static ValueConstructor create(Class<?> type, FieldPlan[] components, Class<?>[] parameterTypes) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor(parameterTypes);
+            if (!constructor.trySetAccessible()) return null;
+            MethodHandle handle = LOOKUP.unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, parameterTypes.length)
+                    .asType(SPREAD_TYPE);
+            return new ValueConstructor(type, components, handle);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    Class<?> type() {
+        return type;
+    }
+
+    int size() {
+        return components.length;
+    }
+
+    /**
+     * Plan of the field behind a component, in constructor parameter order.
+     */
+    FieldPlan component(int index) {
+        return components[index];
+    }
+
+    /**
+     * Accessor of one component within a value array returned by {@link #values}.
+     */
+    FieldAccessor slot(int index) {
+        return slots[index];
+    }
+
+    int indexOf(String name) {
+        for (int i = 0; i < components.length; i++) {
+            if (components[i].name().equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Component values of an instance in constructor parameter order, or the default values for {@code null}.
+     * The array is a fresh copy that may be modified and passed to {@link #construct}.
+     */
+    Object[] values(Object instance) {
+        if (instance == null) return defaults.clone();
+        Object[] values = new Object[components.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = components[i].accessor().get(instance);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Failed to read component: " + components[i].name(), e);
+            }
+        }
+        return values;
+    }
+
+    Object construct(Object[] values) {
+        try {
+            return (Object) constructor.invokeExact(values);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to construct " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Component of a value array, so that the update paths can write into it like into a field.
+     */
+    record Slot(String name, Class<?> type, int index) implements FieldAccessor {
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object get(Object target) {
+            return ((Object[]) target)[index];
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            if (value == null && type.isPrimitive())
+                throw new IllegalArgumentException("Can not set primitive component " + name + " to null");
+            ((Object[]) target)[index] = value;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package mn.astvision.commontools.entityupdater;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Identity-based record of the object pairs visited by one update, so that a nested target reached again with
+ * the same updates object and the same include/skip cursors is not processed twice. Shared sub-objects are
+ * updated once, and back-references in cyclic graphs end the recursion instead of running into the stack.
+ * <p>
+ * Each visit also links to the visit it was reached from. When the updates graph has a cycle and the target
+ * field is empty, {@link #enclosingTarget} finds the enclosing pair with the same updates object, so that the
+ * field links back to its target instead of a new instance being created on every lap. Objects that are only
+ * shared, not enclosing, still get their own instance, so that every path of the document is reported.
+ * <p>
+ * Trackers are pooled per thread and reused; the identity map is only filled once an update reaches a nested
+ * object, so flat updates allocate nothing here. The tracker also keeps reusable per-level frames for the
+ * specialized tier and, in iterative mode, the work queue of nested objects still to be updated.
+ */
+final class VisitTracker {
+
+    /**
+     * Larger maps are dropped on release, so that one huge graph does not keep its table per thread.
+     */
+    private static final int MAX_POOLED_SIZE = 1 << 12;
+
+    private static final ThreadLocal<VisitTracker> POOL = ThreadLocal.withInitial(VisitTracker::new);
+
+    private boolean inUse;
+
+    private Object rootTarget;
+    private Object rootUpdates;
+    private PathTrie.Node rootInclude;
+    private PathTrie.Node rootSkip;
+
+    // target -> Visit, or List<Visit> when the same target is updated from several objects
+    private IdentityHashMap<Object, Object> visited;
+    // updates -> Visit, or List<Visit> when the same updates object is applied to several targets
+    private IdentityHashMap<Object, Object> sources;
+    private ArrayDeque<Pending> pending;
+
+    // Visit whose fields are being updated, null at the root; the last visit entered below it
+    private Visit current;
+    private Visit entered;
+
+    private Object[] frames = new Object[4];
+    private int frameDepth;
+
+    private VisitTracker() {
+    }
+
+    /**
+     * Takes this thread's tracker; a nested update on the same thread (e.g. from a strategy) gets a fresh one.
+     */
+    static VisitTracker acquire(Object rootTarget, Object rootUpdates, PathTrie.Node include, PathTrie.Node skip) {
+        VisitTracker tracker = POOL.get();
+        if (tracker.inUse) tracker = new VisitTracker();
+        tracker.inUse = true;
+        tracker.rootTarget = rootTarget;
+        tracker.rootUpdates = rootUpdates;
+        tracker.rootInclude = include;
+        tracker.rootSkip = skip;
+        return tracker;
+    }
+
+    /**
+     * Clears the tracker for reuse; it must not be used afterwards.
+     */
+    void release() {
+        rootTarget = null;
+        rootUpdates = null;
+        rootInclude = null;
+        rootSkip = null;
+        pending = null;
+        current = null;
+        entered = null;
+        frameDepth = 0;
+        if (visited != null) {
+            if (visited.size() > MAX_POOLED_SIZE) {
+                visited = null;
+                sources = null;
+            } else {
+                visited.clear();
+                sources.clear();
+            }
+        }
+        inUse = false;
+    }
+
+    /**
+     * Records the pair as reached from the current visit; see {@link #push()} to descend into it.
+     *
+     * @return {@code false} if the pair was already visited with the same cursors
+     */
+    boolean enter(Object target, Object updates, PathTrie.Node include, PathTrie.Node skip) {
+        if (visited == null) {
+            visited = new IdentityHashMap<>();
+            sources = new IdentityHashMap<>();
+        }
+        if (visited.isEmpty() && rootTarget != null) {
+            visited.put(rootTarget, new Visit(rootTarget, rootUpdates, rootInclude, rootSkip, null, 0));
+        }
+
+        Visit visit = new Visit(target, updates, include, skip, current, current != null ? current.depth + 1 : 1);
+        Object existing = visited.putIfAbsent(target, visit);
+        if (existing instanceof Visit single) {
+            if (single.matches(visit)) return false;
+            List<Visit> visits = new ArrayList<>(2);
+            visits.add(single);
+            visits.add(visit);
+            visited.put(target, visits);
+        } else if (existing != null) {
+            @SuppressWarnings("unchecked")
+            List<Visit> visits = (List<Visit>) existing;
+            for (Visit other : visits) {
+                if (other.matches(visit)) return false;
+            }
+            visits.add(visit);
+        }
+
+        add(sources, updates, visit);
+        entered = visit;
+        return true;
+    }
+
+    /**
+     * Makes the pair entered last the current visit, for updating its fields in place.
+     *
+     * @return the previous current visit, to be restored with {@link #pop(Visit)}
+     */
+    Visit push() {
+        Visit previous = current;
+        current = entered;
+        return previous;
+    }
+
+    void pop(Visit previous) {
+        current = previous;
+    }
+
+    /**
+     * Target of the current visit or of one enclosing it that was entered with the updates object and the same
+     * cursors, i.e. where a cycle in the updates graph leads back to; {@code null} if there is none.
+     */
+    Object enclosingTarget(Object updates, PathTrie.Node include, PathTrie.Node skip) {
+        if (updates == rootUpdates && include == rootInclude && skip == rootSkip) return rootTarget;
+
+        Object existing = sources != null ? sources.get(updates) : null;
+        if (existing instanceof Visit single) {
+            return single.sameCursors(include, skip) && encloses(single) ? single.target : null;
+        }
+        if (existing != null) {
+            @SuppressWarnings("unchecked")
+            List<Visit> visits = (List<Visit>) existing;
+            for (Visit visit : visits) {
+                if (visit.sameCursors(include, skip) && encloses(visit)) return visit.target;
+            }
+        }
+        return null;
+    }
+
+    private boolean encloses(Visit visit) {
+        Visit node = current;
+        while (node != null && node.depth > visit.depth) {
+            node = node.parent;
+        }
+        return node == visit;
+    }
+
+    private static void add(IdentityHashMap<Object, Object> index, Object key, Visit visit) {
+        Object existing = index.putIfAbsent(key, visit);
+        if (existing instanceof Visit single) {
+            List<Visit> visits = new ArrayList<>(2);
+            visits.add(single);
+            visits.add(visit);
+            index.put(key, visits);
+        } else if (existing != null) {
+            @SuppressWarnings("unchecked")
+            List<Visit> visits = (List<Visit>) existing;
+            visits.add(visit);
+        }
+    }
+
+    /**
+     * One visited pair; {@code parent} is the visit it was reached from, {@code null} below the root.
+     */
+    record Visit(Object target, Object updates, PathTrie.Node include, PathTrie.Node skip, Visit parent, int depth) {
+        boolean matches(Visit other) {
+            return updates == other.updates && sameCursors(other.include, other.skip);
+        }
+
+        boolean sameCursors(PathTrie.Node include, PathTrie.Node skip) {
+            return this.include == include && this.skip == skip;
+        }
+    }
+
+    // ======================
+    // Reusable frames
+    // ======================
+
+    /**
+     * Enters one more level of nested frames and returns the frame kept for it, creating it on first use.
+     * Every call must be paired with {@link #exitFrame()}.
+     */
+    @SuppressWarnings("unchecked")
+    <F> F enterFrame(Supplier<F> factory) {
+        if (frameDepth == frames.length) frames = Arrays.copyOf(frames, frameDepth * 2);
+        Object frame = frames[frameDepth];
+        if (frame == null) frames[frameDepth] = frame = factory.get();
+        frameDepth++;
+        return (F) frame;
+    }
+
+    void exitFrame() {
+        frameDepth--;
+    }
+
+    // ======================
+    // Iterative traversal
+    // ======================
+
+    /**
+     * Queues the pair entered last, to be updated once the current level is done.
+     */
+    void defer(Object target, Object updates, String fieldPath, int depth, PathTrie.Node include, PathTrie.Node skip) {
+        if (pending == null) pending = new ArrayDeque<>();
+        pending.addLast(new Pending(target, updates, fieldPath, depth, include, skip, entered));
+    }
+
+    /**
+     * Takes the next queued pair and makes it the current visit.
+     */
+    Pending poll() {
+        Pending next = pending != null ? pending.pollFirst() : null;
+        if (next != null) current = next.visit;
+        return next;
+    }
+
+    record Pending(Object target, Object updates, String fieldPath, int depth, PathTrie.Node include, PathTrie.Node skip,
+                   Visit visit) {
+    }
+}
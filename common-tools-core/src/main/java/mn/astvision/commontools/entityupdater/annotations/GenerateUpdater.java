@@ -0,0 +1,16 @@
+package mn.astvision.commontools.entityupdater.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an entity for compile-time generation of a reflection-free {@code <Type>Updater} by the
+ * {@code common-tools-processor} annotation processor. {@link mn.astvision.commontools.entityupdater.EntityUpdater}
+ * discovers and prefers the generated updater when it is on the classpath.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateUpdater {
+}
@@ -0,0 +1,15 @@
+package mn.astvision.commontools.entityupdater.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Opts an entity into dirty tracking by {@link mn.astvision.commontools.entityupdater.DirtyTracker}: loaded
+ * instances are snapshotted and saved back as partial updates of the changed paths only.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface TrackChanges {
+}
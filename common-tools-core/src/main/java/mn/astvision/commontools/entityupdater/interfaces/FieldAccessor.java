@@ -0,0 +1,11 @@
+package mn.astvision.commontools.entityupdater.interfaces;
+
+public interface FieldAccessor {
+    String getName();
+
+    Class<?> getType();
+
+    Object get(Object target) throws IllegalAccessException;
+
+    void set(Object target, Object value) throws IllegalAccessException;
+}
@@ -0,0 +1,31 @@
+package mn.astvision.commontools.entityupdater.interfaces;
+
+import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldKind;
+import mn.astvision.commontools.entityupdater.UpdateReport;
+
+import java.util.Map;
+
+public interface GeneratedUpdater<T> {
+    /**
+     * Applies {@code updates} to {@code target}; {@code report} may be {@code null}.
+     *
+     * @return whether the target was modified
+     */
+    boolean update(T target, T updates, UpdateContext context, UpdateReport report, String parentField, int depth) throws IllegalAccessException;
+
+    Map<String, String> fieldLabels();
+
+    /**
+     * Metadata of the updated fields by name, so that skips and converters resolve without reflection.
+     * Empty for updaters generated before the metadata was emitted.
+     */
+    default Map<String, FieldInfo> fields() {
+        return Map.of();
+    }
+
+    /**
+     * @param type declared (erased) type of the field, the target type for converters
+     */
+    record FieldInfo(String name, FieldKind kind, Class<?> type) {
+    }
+}
@@ -0,0 +1,22 @@
+package mn.astvision.commontools.entityupdater.interfaces;
+
+import mn.astvision.commontools.entityupdater.UpdateReport;
+
+import java.util.function.Consumer;
+
+/**
+ * Per-update configuration exposed to generated updaters.
+ */
+public interface UpdateContext {
+    boolean shouldUpdate(String parentField, String fieldName);
+
+    Object convert(String fieldName, Object value);
+
+    boolean accepts(String fieldName, Object newValue);
+
+    boolean applyStrategy(Object target, String fieldName, Object newValue, UpdateReport report, String parentField) throws IllegalAccessException;
+
+    String path(String parentField, String fieldName);
+
+    boolean updateValue(Object currentValue, Object newValue, Class<?> type, Consumer<Object> setter, UpdateReport report, String fieldPath, int depth) throws IllegalAccessException;
+}
@@ -0,0 +1,309 @@
+package mn.astvision.commontools.monitoring;
+
+import lombok.extern.slf4j.Slf4j;
+import mn.astvision.commontools.monitoring.sysreport.QueryExecutionContext;
+import mn.astvision.commontools.monitoring.sysreport.QueryReport;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Mongo commands that have started and not yet finished, keyed by driver request id.
+ * <p>
+ * Starting a command is a map insert plus a queue offer, finishing it a map removal; neither touches the timer.
+ * A single sweeper thread moves new commands into a hashed timer wheel of {@value #WHEEL_SIZE} buckets and
+ * advances it every 100 ms, so each sweep only looks at the commands whose deadline falls into the
+ * elapsed ticks. A command still running at its deadline is flagged as stuck (logged with its
+ * {@link QueryExecutionContext} and passed to the stuck listener); one still running after {@code evictAfter} is
+ * evicted, so that commands whose completion was never reported cannot accumulate.
+ */
+@Slf4j
+public final class InFlightCommandTracker implements AutoCloseable {
+
+    public static final Duration DEFAULT_STUCK_THRESHOLD = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_EVICT_AFTER = Duration.ofMinutes(10);
+
+    private static final Duration TICK = Duration.ofMillis(100);
+    private static final int WHEEL_SIZE = 512;
+
+    private final long tickNanos = TICK.toNanos();
+    private final long stuckNanos;
+    private final long evictNanos;
+    private final long originNanos = System.nanoTime();
+
+    private final Map<Integer, Entry> running = new ConcurrentHashMap<>();
+    // Started commands not yet placed in the wheel
+    private final ConcurrentLinkedQueue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the sweeper thread
+    private final List<Entry>[] wheel;
+    private long tick;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile ScheduledExecutorService sweeper;
+    private volatile Consumer<RunningCommand> stuckListener;
+
+    private final LongAdder stuck = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Snapshot of a command that is still running.
+     */
+    public record RunningCommand(int requestId, String commandName, String database, long elapsedMs,
+                                 QueryExecutionContext context, QueryReport report) {
+    }
+
+    private static final class Entry {
+        private final int requestId;
+        private final QueryReport report;
+        private final long startedNanos;
+        private volatile boolean finished;
+        private volatile boolean stuck;
+        // Sweeper only
+        private long deadlineNanos;
+
+        private Entry(int requestId, QueryReport report, long startedNanos) {
+            this.requestId = requestId;
+            this.report = report;
+            this.startedNanos = startedNanos;
+        }
+    }
+
+    public InFlightCommandTracker() {
+        this(DEFAULT_STUCK_THRESHOLD, DEFAULT_EVICT_AFTER);
+    }
+
+    public InFlightCommandTracker(Duration stuckThreshold, Duration evictAfter) {
+        if (stuckThreshold.isNegative() || stuckThreshold.isZero()) {
+            throw new IllegalArgumentException("Stuck threshold must be positive: " + stuckThreshold);
+        }
+        if (evictAfter.compareTo(stuckThreshold) < 0) {
+            throw new IllegalArgumentException("Eviction must not come before the stuck threshold: " + evictAfter);
+        }
+        this.stuckNanos = stuckThreshold.toNanos();
+        this.evictNanos = evictAfter.toNanos();
+        this.wheel = newWheel();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Entry>[] newWheel() {
+        List<Entry>[] wheel = (List<Entry>[]) new List<?>[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        return wheel;
+    }
+
+    /**
+     * Called by the sweeper thread for every command that crosses the stuck threshold.
+     */
+    public void setStuckListener(Consumer<RunningCommand> listener) {
+        this.stuckListener = listener;
+    }
+
+    public void start(int requestId, QueryReport report) {
+        if (started.compareAndSet(false, true)) startSweeper();
+
+        Entry entry = new Entry(requestId, report, System.nanoTime());
+        Entry previous = running.put(requestId, entry);
+        if (previous != null) previous.finished = true;
+        scheduled.offer(entry);
+    }
+
+    /**
+     * Removes a command on success or failure.
+     *
+     * @return its report, or {@code null} if it was not tracked (or already evicted)
+     */
+    public QueryReport finish(int requestId) {
+        Entry entry = running.remove(requestId);
+        if (entry == null) return null;
+        entry.finished = true;
+        return entry.report;
+    }
+
+    // ======================
+    // Queries
+    // ======================
+
+    public int size() {
+        return running.size();
+    }
+
+    public List<RunningCommand> getRunning() {
+        return getRunningLongerThan(0);
+    }
+
+    /**
+     * Commands running for at least {@code millis}, longest first.
+     */
+    public List<RunningCommand> getRunningLongerThan(long millis) {
+        long now = System.nanoTime();
+        long minNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        List<RunningCommand> commands = new ArrayList<>();
+        for (Entry entry : running.values()) {
+            if (now - entry.startedNanos >= minNanos) commands.add(snapshot(entry, now));
+        }
+        commands.sort(Comparator.comparingLong(RunningCommand::elapsedMs).reversed());
+        return commands;
+    }
+
+    /**
+     * Running commands that have crossed the stuck threshold, longest first.
+     */
+    public List<RunningCommand> getStuck() {
+        long now = System.nanoTime();
+        List<RunningCommand> commands = new ArrayList<>();
+        for (Entry entry : running.values()) {
+            if (entry.stuck) commands.add(snapshot(entry, now));
+        }
+        commands.sort(Comparator.comparingLong(RunningCommand::elapsedMs).reversed());
+        return commands;
+    }
+
+    /**
+     * Commands that have been flagged as stuck so far.
+     */
+    public long getStuckCount() {
+        return stuck.sum();
+    }
+
+    /**
+     * Commands removed by the sweeper because they never finished.
+     */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    private static RunningCommand snapshot(Entry entry, long now) {
+        QueryReport report = entry.report;
+        return new RunningCommand(entry.requestId, report.getCommandName(), report.getDatabase(),
+                TimeUnit.NANOSECONDS.toMillis(now - entry.startedNanos), report.getContext(), report);
+    }
+
+    // ======================
+    // Timer wheel
+    // ======================
+
+    private void startSweeper() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mongo-inflight-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::sweepSafely, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        sweeper = executor;
+    }
+
+    private void sweepSafely() {
+        try {
+            sweep(System.nanoTime());
+        } catch (RuntimeException e) {
+            log.warn("In-flight command sweep failed", e);
+        }
+    }
+
+    void sweep(long now) {
+        Entry entry;
+        while ((entry = scheduled.poll()) != null) {
+            if (entry.finished) continue;
+            entry.deadlineNanos = entry.startedNanos + stuckNanos;
+            place(entry, tick);
+        }
+
+        // Catches up on ticks missed while the sweeper was delayed, at most one full turn
+        long target = tickOf(now);
+        long from = Math.max(tick, target - WHEEL_SIZE + 1);
+        for (long t = from; t <= target; t++) {
+            expire(wheel[(int) (t & (WHEEL_SIZE - 1))], now, t + 1);
+        }
+        tick = target + 1;
+    }
+
+    private void expire(List<Entry> bucket, long now, long nextTick) {
+        int kept = 0;
+        List<Entry> rescheduled = null;
+        for (int i = 0; i < bucket.size(); i++) {
+            Entry entry = bucket.get(i);
+            if (entry.finished) continue;
+            if (entry.deadlineNanos > now) {
+                // Due in a later turn of the wheel
+                bucket.set(kept++, entry);
+                continue;
+            }
+            if (!entry.stuck) {
+                markStuck(entry, now);
+                if (rescheduled == null) rescheduled = new ArrayList<>();
+                rescheduled.add(entry);
+            } else {
+                evict(entry, now);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+
+        if (rescheduled != null) {
+            for (Entry entry : rescheduled) {
+                entry.deadlineNanos = entry.startedNanos + evictNanos;
+                place(entry, nextTick);
+            }
+        }
+    }
+
+    /**
+     * @param minTick first tick that is still to be swept, so that an overdue entry is not put behind the wheel
+     */
+    private void place(Entry entry, long minTick) {
+        // First tick at or after the deadline, so that the entry is due whenever its bucket is swept
+        long due = Math.max(tickOf(entry.deadlineNanos + tickNanos - 1), minTick);
+        wheel[(int) (due & (WHEEL_SIZE - 1))].add(entry);
+    }
+
+    private long tickOf(long nanos) {
+        return Math.max(0, (nanos - originNanos) / tickNanos);
+    }
+
+    private void markStuck(Entry entry, long now) {
+        entry.stuck = true;
+        stuck.increment();
+
+        RunningCommand command = snapshot(entry, now);
+        log.warn("Mongo command {} on {} running for {} ms, context: {}", command.commandName(), command.database(),
+                command.elapsedMs(), command.context());
+
+        Consumer<RunningCommand> listener = stuckListener;
+        if (listener != null) {
+            try {
+                listener.accept(command);
+            } catch (RuntimeException e) {
+                log.warn("Stuck command listener failed", e);
+            }
+        }
+    }
+
+    private void evict(Entry entry, long now) {
+        if (!running.remove(entry.requestId, entry)) return;
+        entry.finished = true;
+        evicted.increment();
+        log.warn("Evicting Mongo command {} (request {}) after {} ms without completion", entry.report.getCommandName(),
+                entry.requestId, TimeUnit.NANOSECONDS.toMillis(now - entry.startedNanos));
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService executor = sweeper;
+        if (executor != null) executor.shutdownNow();
+        running.clear();
+        scheduled.clear();
+    }
+}
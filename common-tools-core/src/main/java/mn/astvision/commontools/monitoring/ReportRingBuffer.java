@@ -0,0 +1,198 @@
+package mn.astvision.commontools.monitoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Fixed-capacity, lock-free ring buffer that keeps the most recent elements: once full, every add overwrites the
+ * oldest one.
+ * <p>
+ * Producers claim a sequence number with one atomic increment and publish an immutable slot entry tagged with it;
+ * a producer that was overtaken by a later writer of the same slot discards its element (counted as dropped).
+ * Readers never remove anything. Each reader keeps its own {@link Cursor} and {@link #drain drains} from it
+ * incrementally; elements that were overwritten before the reader got to them are skipped and counted on the cursor.
+ * <pre>{@code
+ * ReportRingBuffer.Cursor cursor = ring.cursor();
+ * ...
+ * ring.drain(cursor, report -> exporter.send(report));
+ * }</pre>
+ */
+public final class ReportRingBuffer<E> {
+
+    private final AtomicReferenceArray<Slot<E>> slots;
+    private final int mask;
+
+    // Next sequence to claim; all sequences below it are claimed, not necessarily published yet
+    private final AtomicLong tail = new AtomicLong();
+    // Sequences below the floor were cleared
+    private volatile long floor;
+
+    private final LongAdder overwritten = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private record Slot<E>(long sequence, E element) {
+    }
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public ReportRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public void add(E element) {
+        long sequence = tail.getAndIncrement();
+        int index = (int) (sequence & mask);
+        Slot<E> slot = new Slot<>(sequence, element);
+        while (true) {
+            Slot<E> current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                // A producer a whole lap ahead already wrote this slot
+                dropped.increment();
+                return;
+            }
+            if (slots.compareAndSet(index, current, slot)) {
+                if (current != null && current.sequence >= floor) overwritten.increment();
+                return;
+            }
+        }
+    }
+
+    // ======================
+    // Reading
+    // ======================
+
+    /**
+     * Position of one reader; not thread-safe, each reader keeps its own.
+     */
+    public static final class Cursor {
+        private long next;
+        private long missed;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Elements that were overwritten before this reader reached them.
+         */
+        public long getMissed() {
+            return missed;
+        }
+    }
+
+    /**
+     * Cursor at the oldest retained element.
+     */
+    public Cursor cursor() {
+        return new Cursor(oldest(tail.get()));
+    }
+
+    /**
+     * Cursor after the newest element, to read only what is added from now on.
+     */
+    public Cursor cursorAtEnd() {
+        return new Cursor(tail.get());
+    }
+
+    public int drain(Cursor cursor, Consumer<? super E> consumer) {
+        return drain(cursor, consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Passes up to {@code limit} elements after the cursor to the consumer, oldest first, and advances the cursor.
+     * Stops early at a slot whose producer has claimed but not yet published it, so the order is kept.
+     *
+     * @return number of elements consumed
+     */
+    public int drain(Cursor cursor, Consumer<? super E> consumer, int limit) {
+        long end = tail.get();
+        long start = oldest(end);
+        if (cursor.next < start) {
+            // Cleared elements are not missed, overwritten ones are
+            cursor.missed += start - Math.max(cursor.next, floor);
+            cursor.next = start;
+        }
+
+        int count = 0;
+        while (cursor.next < end && count < limit) {
+            long sequence = cursor.next;
+            Slot<E> slot = slots.get((int) (sequence & mask));
+            if (slot == null || slot.sequence < sequence) break;
+            cursor.next++;
+            if (slot.sequence > sequence) {
+                cursor.missed++;
+                continue;
+            }
+            consumer.accept(slot.element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Copy of the retained elements, oldest first.
+     */
+    public List<E> snapshot() {
+        List<E> elements = new ArrayList<>(size());
+        drain(cursor(), elements::add);
+        return elements;
+    }
+
+    /**
+     * Forgets the current elements; cursors continue with elements added afterwards.
+     */
+    public void clear() {
+        long end = tail.get();
+        floor = end;
+        for (int i = 0; i < slots.length(); i++) {
+            Slot<E> slot = slots.get(i);
+            if (slot != null && slot.sequence < end) slots.compareAndSet(i, slot, null);
+        }
+    }
+
+    private long oldest(long end) {
+        return Math.max(floor, end - slots.length());
+    }
+
+    // ======================
+    // Counters
+    // ======================
+
+    public int size() {
+        long end = tail.get();
+        return (int) (end - oldest(end));
+    }
+
+    /**
+     * Total number of elements added.
+     */
+    public long getAddedCount() {
+        return tail.get();
+    }
+
+    /**
+     * Elements replaced by newer ones because the buffer was full.
+     */
+    public long getOverwrittenCount() {
+        return overwritten.sum();
+    }
+
+    /**
+     * Elements discarded because a newer element already took their slot.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
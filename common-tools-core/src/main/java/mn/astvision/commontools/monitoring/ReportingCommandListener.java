@@ -8,22 +8,47 @@ import lombok.extern.slf4j.Slf4j;
 import mn.astvision.commontools.monitoring.sysreport.QueryExecutionContext;
 import mn.astvision.commontools.monitoring.sysreport.QueryReport;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-
+import java.util.function.Consumer;
+
+/**
+ * Records Mongo commands as {@link QueryReport}s while enabled. Reports are kept in a {@link ReportRingBuffer} of
+ * fixed capacity, so only the most recent ones are retained; read them incrementally with {@link #cursor()} and
+ * {@link #drain}. Commands that are still running are tracked by an {@link InFlightCommandTracker}, which flags
+ * the ones running longer than the stuck threshold.
+ */
 @Slf4j
-public class ReportingCommandListener implements CommandListener {
+public class ReportingCommandListener implements CommandListener, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 4096;
+
     private static final ThreadLocal<QueryExecutionContext> CONTEXT = new ThreadLocal<>();
-    private final Map<Integer, QueryReport> runningReports = new ConcurrentHashMap<>();
-    private final Queue<QueryReport> reports = new ConcurrentLinkedQueue<>();
+    private final InFlightCommandTracker inFlight;
+    private final ReportRingBuffer<QueryReport> reports;
     private volatile boolean enabled = false;
 
+    public ReportingCommandListener() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of retained reports, rounded up to a power of two
+     */
+    public ReportingCommandListener(int capacity) {
+        this(capacity, InFlightCommandTracker.DEFAULT_STUCK_THRESHOLD);
+    }
+
+    /**
+     * @param stuckThreshold running time after which a command is reported as stuck
+     */
+    public ReportingCommandListener(int capacity, Duration stuckThreshold) {
+        this.reports = new ReportRingBuffer<>(capacity);
+        this.inFlight = new InFlightCommandTracker(stuckThreshold,
+                max(stuckThreshold, InFlightCommandTracker.DEFAULT_EVICT_AFTER));
+    }
+
     public static void setRequestContext(QueryExecutionContext context) {
         CONTEXT.set(context);
     }
@@ -49,8 +74,78 @@ public class ReportingCommandListener implements CommandListener {
         reports.clear();
     }
 
+    /**
+     * Copy of the retained reports, oldest first.
+     */
     public List<QueryReport> getReports() {
-        return new ArrayList<>(reports);
+        return reports.snapshot();
+    }
+
+    /**
+     * Cursor at the oldest retained report, for {@link #drain}.
+     */
+    public ReportRingBuffer.Cursor cursor() {
+        return reports.cursor();
+    }
+
+    /**
+     * Passes the reports recorded since the cursor's position to the consumer and advances the cursor.
+     *
+     * @return number of reports consumed
+     */
+    public int drain(ReportRingBuffer.Cursor cursor, Consumer<? super QueryReport> consumer) {
+        return reports.drain(cursor, consumer);
+    }
+
+    /**
+     * Reports pushed out of the buffer by newer ones.
+     */
+    public long getOverwrittenCount() {
+        return reports.getOverwrittenCount();
+    }
+
+    /**
+     * Reports discarded under contention because a newer report already took their slot.
+     */
+    public long getDroppedCount() {
+        return reports.getDroppedCount();
+    }
+
+    /**
+     * Commands that are still running, longest first.
+     */
+    public List<InFlightCommandTracker.RunningCommand> getRunningCommands() {
+        return inFlight.getRunning();
+    }
+
+    /**
+     * Commands that have been running for at least {@code millis}, longest first, with their request context.
+     */
+    public List<InFlightCommandTracker.RunningCommand> getRunningLongerThan(long millis) {
+        return inFlight.getRunningLongerThan(millis);
+    }
+
+    /**
+     * Running commands past the stuck threshold, longest first.
+     */
+    public List<InFlightCommandTracker.RunningCommand> getStuckCommands() {
+        return inFlight.getStuck();
+    }
+
+    /**
+     * Called on the sweeper thread for each command that crosses the stuck threshold.
+     */
+    public void onStuckCommand(Consumer<InFlightCommandTracker.RunningCommand> listener) {
+        inFlight.setStuckListener(listener);
+    }
+
+    @Override
+    public void close() {
+        inFlight.close();
+    }
+
+    private static Duration max(Duration first, Duration second) {
+        return first.compareTo(second) >= 0 ? first : second;
     }
 
     @Override
@@ -65,7 +160,7 @@ public class ReportingCommandListener implements CommandListener {
         report.setCommandJson(event.getCommand().toJson());
 
         report.setStartTimeMs(System.currentTimeMillis());
-        report.setEndTime(LocalDateTime.now());
+        report.setStartTime(LocalDateTime.now());
 
 
         if (ctx != null) {
@@ -73,21 +168,19 @@ public class ReportingCommandListener implements CommandListener {
         }
 
         reports.add(report);
-        runningReports.put(event.getRequestId(), report); // store for later
+        inFlight.start(event.getRequestId(), report);
     }
 
 
     @Override
     public void commandSucceeded(CommandSucceededEvent event) {
-        if (!enabled) return;
-
-        QueryReport report = runningReports.remove(event.getRequestId());
+        // Always removed, also for commands that started before monitoring was disabled
+        QueryReport report = inFlight.finish(event.getRequestId());
         if (report != null) {
-            long endNs = System.nanoTime();
             report.setDurationNs(event.getElapsedTime(TimeUnit.NANOSECONDS));
             report.setDurationMs(report.getDurationNs() / 1_000_000);
             report.setEndTime(LocalDateTime.now());
-            report.setEndTimeMs(endNs / 1_000_000);
+            report.setEndTimeMs(System.currentTimeMillis());
 
             // optionally run explain for reads
             if ("find".equals(report.getCommandName()) || "aggregate".equals(report.getCommandName())) {
@@ -99,12 +192,23 @@ public class ReportingCommandListener implements CommandListener {
 
     @Override
     public void commandFailed(CommandFailedEvent event) {
+        QueryReport report = inFlight.finish(event.getRequestId());
+        if (report != null) {
+            report.setError(event.getThrowable().getMessage());
+            report.setDurationNs(event.getElapsedTime(TimeUnit.NANOSECONDS));
+            report.setDurationMs(report.getDurationNs() / 1_000_000);
+            report.setEndTime(LocalDateTime.now());
+            report.setEndTimeMs(System.currentTimeMillis());
+            return;
+        }
+
+        // Started while monitoring was disabled
         if (!enabled) return;
         QueryExecutionContext ctx = CONTEXT.get();
-        QueryReport report = new QueryReport();
+        report = new QueryReport();
         report.setCommandName(event.getCommandName());
         report.setError(event.getThrowable().getMessage());
-        report.setStartTimeMs(System.nanoTime());
+        report.setStartTimeMs(System.currentTimeMillis());
         report.setStartTime(LocalDateTime.now());
         if (ctx != null) {
             report.setContext(ctx);
@@ -0,0 +1,118 @@
+package mn.astvision.commontools.entityupdater;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CyclicUpdateTest {
+
+    static class Parent {
+        String name;
+        Child child;
+    }
+
+    static class Child {
+        String name;
+        Parent parent;
+    }
+
+    static class Person {
+        Child home;
+        Child work;
+    }
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private static Parent bidirectional() {
+        Parent parent = new Parent();
+        parent.name = "parent";
+        parent.child = new Child();
+        parent.child.name = "child";
+        parent.child.parent = parent;
+        return parent;
+    }
+
+    @Test
+    void cycleInUpdatesLinksBackToTarget() {
+        Parent target = new Parent();
+        boolean changed = assertTimeoutPreemptively(TIMEOUT, () -> EntityUpdater.builder(target, bidirectional()).updateChanged());
+
+        assertTrue(changed);
+        assertEquals("parent", target.name);
+        assertEquals("child", target.child.name);
+        assertSame(target, target.child.parent);
+    }
+
+    @Test
+    void cycleInUpdatesLinksBackToTargetIteratively() {
+        Parent target = new Parent();
+        assertTimeoutPreemptively(TIMEOUT, () -> EntityUpdater.builder(target, bidirectional()).iterative(true).update());
+
+        assertEquals("child", target.child.name);
+        assertSame(target, target.child.parent);
+    }
+
+    @Test
+    void cycleInUpdatesIsReportedOnce() {
+        Parent target = new Parent();
+        UpdateReport report = assertTimeoutPreemptively(TIMEOUT,
+                () -> EntityUpdater.builder(target, bidirectional()).updateWithReport());
+
+        assertEquals(2, report.size());
+        assertTrue(report.getChanges().containsKey("name"));
+        assertTrue(report.getChanges().containsKey("child.name"));
+    }
+
+    @Test
+    void cycleInUpdatesOntoExistingChildLinksToRoot() {
+        Parent target = new Parent();
+        target.child = new Child();
+        Child child = target.child;
+
+        assertTimeoutPreemptively(TIMEOUT, () -> EntityUpdater.builder(target, bidirectional()).update());
+
+        assertSame(child, target.child);
+        assertSame(target, child.parent);
+    }
+
+    @Test
+    void diffOfCycleInUpdatesTerminates() {
+        Parent target = new Parent();
+        UpdateReport report = assertTimeoutPreemptively(TIMEOUT, () -> EntityUpdater.diff(target, bidirectional()));
+
+        assertEquals(2, report.size());
+        assertNull(target.child);
+    }
+
+    @Test
+    void cycleInTargetAndUpdatesTerminates() {
+        Parent target = bidirectional();
+        Parent updates = bidirectional();
+        updates.child.name = "renamed";
+
+        UpdateReport report = assertTimeoutPreemptively(TIMEOUT,
+                () -> EntityUpdater.builder(target, updates).updateWithReport());
+
+        assertEquals(1, report.size());
+        assertEquals("renamed", target.child.name);
+        assertSame(target, target.child.parent);
+    }
+
+    @Test
+    void sharedUpdatesWithoutCycleCreateSeparateTargets() {
+        Person updates = new Person();
+        updates.home = new Child();
+        updates.home.name = "same";
+        updates.work = updates.home;
+
+        Person target = new Person();
+        UpdateReport report = EntityUpdater.builder(target, updates).updateWithReport();
+
+        assertNotSame(target.home, target.work);
+        assertEquals("same", target.work.name);
+        assertTrue(report.getChanges().containsKey("home.name"));
+        assertTrue(report.getChanges().containsKey("work.name"));
+    }
+}
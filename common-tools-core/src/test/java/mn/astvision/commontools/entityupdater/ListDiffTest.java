@@ -0,0 +1,142 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.ListDiff.Edit;
+import mn.astvision.commontools.entityupdater.ListDiff.Type;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListDiffTest {
+
+    @Test
+    void equalListsHaveNoEdits() {
+        assertEquals(List.of(), ListDiff.diff(List.of(1, 2, 3), List.of(1, 2, 3)));
+        assertEquals(List.of(), ListDiff.diff(null, List.of()));
+    }
+
+    @Test
+    void insertAndDeleteKeepDocumentOrder() {
+        List<Edit> edits = ListDiff.diff(List.of("a", "b", "c"), List.of("a", "x", "c", "y"));
+
+        assertEquals(List.of(
+                new Edit(Type.DELETE, 1, -1, "b"),
+                new Edit(Type.INSERT, -1, 1, "x"),
+                new Edit(Type.INSERT, -1, 3, "y")), edits);
+    }
+
+    @Test
+    void reappearingElementIsMove() {
+        List<Edit> edits = ListDiff.diff(List.of("a", "b", "c"), List.of("b", "c", "a"));
+
+        assertEquals(List.of(new Edit(Type.MOVE, 0, 2, "a")), edits);
+    }
+
+    @Test
+    void duplicatesAndNullsArePairedOneToOne() {
+        List<Object> oldList = Arrays.asList(null, 1, 1, 2);
+        List<Object> newList = Arrays.asList(1, null, 2, 1, 1);
+
+        assertScript(oldList, newList, ListDiff.diff(oldList, newList));
+    }
+
+    @Test
+    void randomScriptsRebuildNewListAndKeepLongestCommonSubsequence() {
+        Random random = new Random(42);
+        for (int round = 0; round < 2_000; round++) {
+            List<Integer> oldList = randomList(random);
+            List<Integer> newList = random.nextBoolean() ? mutate(oldList, random) : randomList(random);
+
+            assertScript(oldList, newList, ListDiff.diff(oldList, newList));
+        }
+    }
+
+    @Test
+    void nonRandomAccessListsAreDiffed() {
+        List<Integer> oldList = new LinkedList<>(List.of(1, 2, 3, 4));
+        List<Integer> newList = new LinkedList<>(List.of(4, 1, 3, 5));
+
+        assertScript(oldList, newList, ListDiff.diff(oldList, newList));
+    }
+
+    /**
+     * Checks that the script turns the old list into the new one, and that the elements it keeps in place are a
+     * longest common subsequence.
+     */
+    private static void assertScript(List<?> oldList, List<?> newList, List<Edit> edits) {
+        boolean[] removed = new boolean[oldList.size()];
+        Object[] placed = new Object[newList.size()];
+        boolean[] filled = new boolean[newList.size()];
+        for (Edit edit : edits) {
+            if (edit.type() != Type.INSERT) {
+                assertFalse(removed[edit.oldIndex()], () -> "old index used twice: " + edits);
+                assertEquals(oldList.get(edit.oldIndex()), edit.value());
+                removed[edit.oldIndex()] = true;
+            }
+            if (edit.type() != Type.DELETE) {
+                assertFalse(filled[edit.newIndex()], () -> "new index used twice: " + edits);
+                assertEquals(newList.get(edit.newIndex()), edit.value());
+                placed[edit.newIndex()] = edit.value();
+                filled[edit.newIndex()] = true;
+            }
+        }
+
+        Iterator<?> kept = keptElements(oldList, removed).iterator();
+        List<Object> rebuilt = new ArrayList<>();
+        for (int j = 0; j < placed.length; j++) {
+            assertTrue(filled[j] || kept.hasNext(), () -> "script leaves gaps: " + edits);
+            rebuilt.add(filled[j] ? placed[j] : kept.next());
+        }
+        assertFalse(kept.hasNext(), () -> "script keeps too many elements: " + edits);
+        assertEquals(newList, rebuilt, () -> oldList + " -> " + newList + " by " + edits);
+
+        assertEquals(lcsLength(oldList, newList), keptElements(oldList, removed).size(),
+                () -> "not minimal: " + oldList + " -> " + newList + " by " + edits);
+    }
+
+    private static List<Object> keptElements(List<?> oldList, boolean[] removed) {
+        List<Object> kept = new ArrayList<>();
+        for (int i = 0; i < removed.length; i++) {
+            if (!removed[i]) kept.add(oldList.get(i));
+        }
+        return kept;
+    }
+
+    private static int lcsLength(List<?> a, List<?> b) {
+        int[][] lengths = new int[a.size() + 1][b.size() + 1];
+        for (int i = 1; i <= a.size(); i++) {
+            for (int j = 1; j <= b.size(); j++) {
+                lengths[i][j] = Objects.equals(a.get(i - 1), b.get(j - 1))
+                        ? lengths[i - 1][j - 1] + 1
+                        : Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+            }
+        }
+        return lengths[a.size()][b.size()];
+    }
+
+    private static List<Integer> randomList(Random random) {
+        int size = random.nextInt(30);
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(random.nextInt(6));
+        }
+        return list;
+    }
+
+    private static List<Integer> mutate(List<Integer> list, Random random) {
+        List<Integer> result = new ArrayList<>(list);
+        int changes = random.nextInt(5);
+        for (int c = 0; c < changes; c++) {
+            int operation = random.nextInt(3);
+            if (operation == 0 || result.isEmpty()) {
+                result.add(random.nextInt(result.size() + 1), random.nextInt(6));
+            } else if (operation == 1) {
+                result.remove(random.nextInt(result.size()));
+            } else {
+                result.add(random.nextInt(result.size()), result.remove(random.nextInt(result.size())));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+package mn.astvision.commontools.entityupdater;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathTrieTest {
+
+    static class Leaf {
+        String c;
+        String d;
+    }
+
+    static class Branch {
+        Leaf b;
+        String x;
+    }
+
+    static class Root {
+        Branch a;
+        String y;
+    }
+
+    private static Root root(String value) {
+        Root root = new Root();
+        root.y = value;
+        root.a = new Branch();
+        root.a.x = value;
+        root.a.b = new Leaf();
+        root.a.b.c = value;
+        root.a.b.d = value;
+        return root;
+    }
+
+    private static Set<String> changed(UpdatePlan.Builder<Root> plan) {
+        return plan.compile().apply(root("old"), root("new")).getChanges().keySet();
+    }
+
+    // ======================
+    // Trie
+    // ======================
+
+    @Test
+    void descendStopsAtUnmatchedSegment() {
+        PathTrie.Node root = PathTrie.of(List.of("a.b.c")).root();
+
+        PathTrie.Node a = PathTrie.descend(root, "a");
+        assertNotNull(a);
+        assertNotSame(PathTrie.ALL, a);
+        assertNull(PathTrie.descend(root, "y"));
+        assertNull(PathTrie.descend(a, "x"));
+        assertSame(PathTrie.ALL, PathTrie.descend(PathTrie.descend(a, "b"), "c"));
+    }
+
+    @Test
+    void everythingBelowMatchedPathMatches() {
+        PathTrie.Node root = PathTrie.of(List.of("a")).root();
+
+        assertSame(PathTrie.ALL, PathTrie.descend(root, "a"));
+        assertSame(PathTrie.ALL, PathTrie.descend(PathTrie.ALL, "anything"));
+    }
+
+    @Test
+    void wildcardMatchesAnySegment() {
+        PathTrie.Node root = PathTrie.of(List.of("a.*.c")).root();
+        PathTrie.Node a = PathTrie.descend(root, "a");
+
+        assertSame(PathTrie.ALL, PathTrie.descend(PathTrie.descend(a, "b"), "c"));
+        assertSame(PathTrie.ALL, PathTrie.descend(PathTrie.descend(a, "other"), "c"));
+        assertNull(PathTrie.descend(PathTrie.descend(a, "b"), "d"));
+    }
+
+    @Test
+    void exactSiblingKeepsWildcardPaths() {
+        PathTrie.Node a = PathTrie.descend(PathTrie.of(List.of("a.*.d", "a.b.c")).root(), "a");
+        PathTrie.Node b = PathTrie.descend(a, "b");
+
+        assertSame(PathTrie.ALL, PathTrie.descend(b, "c"));
+        assertSame(PathTrie.ALL, PathTrie.descend(b, "d"));
+    }
+
+    @Test
+    void broaderPathWinsOverNarrowerOne() {
+        PathTrie.Node a = PathTrie.descend(PathTrie.of(List.of("a.b.c", "a.b")).root(), "a");
+
+        assertSame(PathTrie.ALL, PathTrie.descend(a, "b"));
+    }
+
+    // ======================
+    // Include / skip precedence
+    // ======================
+
+    @Test
+    void includeOfNestedPathKeepsItsAncestorsOnly() {
+        assertEquals(Set.of("a.b.c"), changed(UpdatePlan.builder(Root.class).includeFields("a.b.c")));
+    }
+
+    @Test
+    void includeOfObjectCoversItsFields() {
+        assertEquals(Set.of("a.b.c", "a.b.d", "a.x"), changed(UpdatePlan.builder(Root.class).includeFields("a", "a.b.c")));
+    }
+
+    @Test
+    void includeWildcardWithExactSibling() {
+        assertEquals(Set.of("a.b.c", "a.b.d"), changed(UpdatePlan.builder(Root.class).includeFields("a.*.c", "a.b.d")));
+    }
+
+    @Test
+    void skipWinsOverInclude() {
+        assertEquals(Set.of("a.b.d", "a.x"), changed(UpdatePlan.builder(Root.class).includeFields("a").skipFields("a.b.c")));
+        assertEquals(Set.of(), changed(UpdatePlan.builder(Root.class).includeFields("a.b.c").skipFields("a.b")));
+    }
+
+    @Test
+    void skipWildcardWithExactSibling() {
+        assertEquals(Set.of("a.x", "y"), changed(UpdatePlan.builder(Root.class).skipFields("a.*.c", "a.b.d")));
+    }
+
+    @Test
+    void skipOfPlainNameAppliesAtEveryLevel() {
+        assertEquals(Set.of("a.b.d", "a.x", "y"), changed(UpdatePlan.builder(Root.class).skipFields("c")));
+    }
+}
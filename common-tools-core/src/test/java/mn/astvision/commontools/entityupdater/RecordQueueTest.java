@@ -0,0 +1,109 @@
+package mn.astvision.commontools.entityupdater;
+
+import mn.astvision.commontools.entityupdater.AuditSink.RecordQueue;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordQueueTest {
+
+    @Test
+    void rejectsOffersOnceFull() {
+        RecordQueue<Integer> queue = new RecordQueue<>(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        List<Integer> batch = new ArrayList<>();
+        queue.drainTo(batch, 1);
+        assertEquals(List.of(0), batch);
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+    }
+
+    @Test
+    void drainsInOfferOrderAcrossLaps() {
+        RecordQueue<Integer> queue = new RecordQueue<>(8);
+        List<Integer> drained = new ArrayList<>();
+        int next = 0;
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(queue.offer(next++));
+            }
+            // The limit counts the whole batch, as the writer always drains into an empty one
+            List<Integer> batch = new ArrayList<>();
+            queue.drainTo(batch, 4 + round % 3);
+            drained.addAll(batch);
+        }
+        queue.drainTo(drained, Integer.MAX_VALUE);
+
+        assertEquals(0, queue.size());
+        for (int i = 0; i < next; i++) {
+            assertEquals(i, drained.get(i));
+        }
+    }
+
+    @Test
+    void concurrentProducersDeliverEveryRecordOnceInProducerOrder() {
+        int producers = 4;
+        int perProducer = 20_000;
+        RecordQueue<long[]> queue = new RecordQueue<>(64);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            ExecutorService executor = Executors.newFixedThreadPool(producers);
+            CountDownLatch start = new CountDownLatch(1);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int p = 0; p < producers; p++) {
+                    long producer = p;
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        for (long i = 0; i < perProducer; i++) {
+                            long[] record = {producer, i};
+                            // Yield rather than spin, so that the consumer gets to run on a single core
+                            while (!queue.offer(record)) {
+                                Thread.yield();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+
+                long[] expected = new long[producers];
+                List<long[]> batch = new ArrayList<>();
+                int received = 0;
+                while (received < producers * perProducer) {
+                    queue.drainTo(batch, 32);
+                    if (batch.isEmpty()) Thread.yield();
+                    for (long[] record : batch) {
+                        int producer = (int) record[0];
+                        assertEquals(expected[producer]++, record[1], "out of order or duplicated");
+                    }
+                    received += batch.size();
+                    batch.clear();
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+
+                assertEquals(0, queue.size());
+                for (long count : expected) {
+                    assertEquals(perProducer, count);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        });
+    }
+}
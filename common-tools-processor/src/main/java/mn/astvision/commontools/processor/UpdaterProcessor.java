@@ -0,0 +1,364 @@
+package mn.astvision.commontools.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates a reflection-free {@code <Type>Updater} for every class annotated with
+ * {@code @GenerateUpdater}. The generated class implements {@code GeneratedUpdater} from
+ * {@code common-tools-core} and is picked up automatically by {@code EntityUpdater.builder}.
+ * <p>
+ * Fields are read and written directly when visible from the entity's package, otherwise through
+ * JavaBean/Lombok getters and setters. {@code @Transient}, static, final and system fields are skipped,
+ * mirroring the runtime updater. Each field's name, kind and declared type are emitted as {@code fields()},
+ * so that skips and converters resolve at runtime without reflection.
+ */
+@SupportedAnnotationTypes(UpdaterProcessor.GENERATE_UPDATER)
+public class UpdaterProcessor extends AbstractProcessor {
+
+    static final String GENERATE_UPDATER = "mn.astvision.commontools.entityupdater.annotations.GenerateUpdater";
+    private static final String FIELD_LABEL = "mn.astvision.commontools.entityupdater.annotations.FieldLabel";
+    private static final String TRANSIENT = "org.springframework.data.annotation.Transient";
+
+    // Must match EntityUpdater.SYSTEM_FIELDS
+    private static final Set<String> SYSTEM_FIELDS = Set.of("id", "createdBy", "modifiedBy", "createdDate", "modifiedDate");
+
+    private static final Set<String> SIMPLE_TYPES = Set.of(
+            "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Short", "java.lang.Integer",
+            "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Void", "java.lang.String");
+    private static final Set<String> LOMBOK_GETTERS = Set.of("lombok.Data", "lombok.Getter", "lombok.Value");
+    private static final Set<String> LOMBOK_SETTERS = Set.of("lombok.Data", "lombok.Setter");
+
+    private enum Kind {SIMPLE, COMPLEX}
+
+    /**
+     * @param type      cast type of values, boxed for primitives
+     * @param rawType   declared (erased) type
+     * @param fieldKind constant of the runtime {@code FieldKind}
+     */
+    private record FieldModel(String name, String type, String rawType, Kind kind, String fieldKind, String read,
+                              String writePrefix, String writeSuffix) {
+        String read(String target) {
+            return String.format(read, target);
+        }
+
+        String write(String target, String value) {
+            return String.format(writePrefix, target) + value + writeSuffix;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(GENERATE_UPDATER);
+        if (annotation == null) return false;
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@GenerateUpdater is only supported on classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE)
+                    || (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))) {
+                error(type, "@GenerateUpdater requires a top-level or non-private static nested class");
+                continue;
+            }
+
+            try {
+                generate(type);
+            } catch (IOException e) {
+                error(type, "Failed to generate updater: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    // ======================
+    // Field model
+    // ======================
+
+    private List<FieldModel> collectFields(TypeElement type) {
+        List<FieldModel> fields = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                String name = field.getSimpleName().toString();
+                if (!seen.add(name)) continue;
+
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) continue;
+                if (hasAnnotation(field, TRANSIENT) || SYSTEM_FIELDS.contains(name)) continue;
+
+                FieldModel model = resolveField(type, current, field);
+                if (model != null) fields.add(model);
+            }
+            current = superclassOf(current);
+        }
+        return fields;
+    }
+
+    private FieldModel resolveField(TypeElement type, TypeElement declaring, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        TypeMirror fieldType = field.asType();
+        String typeName = processingEnv.getTypeUtils().erasure(fieldType).toString();
+        String castType = fieldType.getKind().isPrimitive() ? boxedName(fieldType) : typeName;
+        Kind kind = isSimple(fieldType) ? Kind.SIMPLE : Kind.COMPLEX;
+        String fieldKind = fieldKind(fieldType);
+
+        Set<Modifier> modifiers = field.getModifiers();
+        boolean samePackage = packageOf(declaring).equals(packageOf(type));
+        if (modifiers.contains(Modifier.PUBLIC) || (!modifiers.contains(Modifier.PRIVATE) && samePackage)) {
+            return new FieldModel(name, castType, typeName, kind, fieldKind, "%s." + name, "%s." + name + " = ", "");
+        }
+
+        // Lombok naming: boolean "isActive" -> isActive()/setActive(), boolean "active" -> isActive()/setActive()
+        boolean isBoolean = fieldType.getKind() == TypeKind.BOOLEAN;
+        String getter, setter;
+        if (isBoolean && name.length() > 2 && name.startsWith("is") && Character.isUpperCase(name.charAt(2))) {
+            getter = name;
+            setter = "set" + name.substring(2);
+        } else {
+            getter = (isBoolean ? "is" : "get") + capitalize(name);
+            setter = "set" + capitalize(name);
+        }
+
+        if (!hasAccessor(type, declaring, field, getter, LOMBOK_GETTERS) || !hasAccessor(type, declaring, field, setter, LOMBOK_SETTERS)) {
+            error(field, "Field '" + name + "' is not accessible from the generated updater; "
+                    + "add " + getter + "()/" + setter + "(...) (e.g. Lombok @Data) or make it non-private");
+            return null;
+        }
+        return new FieldModel(name, castType, typeName, kind, fieldKind, "%s." + getter + "()", "%s." + setter + "(", ")");
+    }
+
+    private boolean hasAccessor(TypeElement type, TypeElement declaring, VariableElement field, String methodName, Set<String> lombokAnnotations) {
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals(methodName) && !method.getModifiers().contains(Modifier.PRIVATE)) return true;
+        }
+        // Lombok may not have generated the accessors yet in this round
+        for (String annotation : lombokAnnotations) {
+            if (hasAnnotation(declaring, annotation) || hasAnnotation(field, annotation)) return true;
+        }
+        return false;
+    }
+
+    private boolean isSimple(TypeMirror type) {
+        if (type.getKind().isPrimitive()) return true;
+        if (type.getKind() != TypeKind.DECLARED) return false;
+
+        String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        if (SIMPLE_TYPES.contains(name)) return true;
+        return isAssignable(type, "java.util.Date") || isAssignable(type, "java.time.temporal.Temporal");
+    }
+
+    /**
+     * Must match {@code ClassUpdatePlan.FieldKind.of}.
+     */
+    private String fieldKind(TypeMirror type) {
+        boolean isEnum = type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+        if (isSimple(type) || isEnum) return "SIMPLE";
+        if (isAssignable(type, "java.util.Collection")) return "COLLECTION";
+        if (isAssignable(type, "java.util.Map")) return "MAP";
+        return "NESTED";
+    }
+
+    private boolean isAssignable(TypeMirror type, String targetName) {
+        TypeElement target = processingEnv.getElementUtils().getTypeElement(targetName);
+        return target != null && processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(target.asType()));
+    }
+
+    private Map<String, String> collectLabels(TypeElement type) {
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            String name = field.getSimpleName().toString();
+            String label = annotationValue(field, FIELD_LABEL);
+            labels.put(name, label != null ? label : name);
+        }
+        return labels;
+    }
+
+    // ======================
+    // Source generation
+    // ======================
+
+    private void generate(TypeElement type) throws IOException {
+        List<FieldModel> fields = collectFields(type);
+        Map<String, String> labels = collectLabels(type);
+
+        String packageName = packageOf(type);
+        String updaterName = flatName(type) + "Updater";
+        String entity = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        StringBuilder src = new StringBuilder();
+        if (!packageName.isEmpty()) src.append("package ").append(packageName).append(";\n\n");
+        src.append("import mn.astvision.commontools.entityupdater.ClassUpdatePlan.FieldKind;\n");
+        src.append("import mn.astvision.commontools.entityupdater.UpdateReport;\n");
+        src.append("import mn.astvision.commontools.entityupdater.interfaces.GeneratedUpdater;\n");
+        src.append("import mn.astvision.commontools.entityupdater.interfaces.UpdateContext;\n\n");
+        src.append("import java.util.Map;\n");
+        src.append("import java.util.Objects;\n\n");
+        src.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n");
+        src.append("public final class ").append(updaterName).append(" implements GeneratedUpdater<").append(entity).append("> {\n\n");
+
+        src.append("    private static final Map<String, String> FIELD_LABELS = Map.ofEntries(");
+        StringJoiner entries = new StringJoiner(",\n", "\n", "\n    ");
+        labels.forEach((name, label) -> entries.add("            Map.entry(" + literal(name) + ", " + literal(label) + ")"));
+        src.append(labels.isEmpty() ? "" : entries.toString()).append(");\n\n");
+
+        src.append("    private static final Map<String, FieldInfo> FIELDS = Map.ofEntries(");
+        StringJoiner infos = new StringJoiner(",\n", "\n", "\n    ");
+        for (FieldModel field : fields) {
+            infos.add("            Map.entry(" + literal(field.name()) + ", new FieldInfo(" + literal(field.name()) + ", FieldKind."
+                    + field.fieldKind() + ", " + field.rawType() + ".class))");
+        }
+        src.append(fields.isEmpty() ? "" : infos.toString()).append(");\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public Map<String, String> fieldLabels() {\n");
+        src.append("        return FIELD_LABELS;\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public Map<String, FieldInfo> fields() {\n");
+        src.append("        return FIELDS;\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        src.append("    public boolean update(").append(entity).append(" target, ").append(entity)
+                .append(" updates, UpdateContext context, UpdateReport report, String parentField, int depth) throws IllegalAccessException {\n");
+        src.append("        boolean changed = false;\n\n");
+        for (FieldModel field : fields) {
+            appendField(src, field);
+        }
+        src.append("        return changed;\n");
+        src.append("    }\n");
+        src.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? updaterName : packageName + "." + updaterName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(src.toString());
+        }
+    }
+
+    private void appendField(StringBuilder src, FieldModel field) {
+        String name = literal(field.name());
+        src.append("        // ").append(field.name()).append("\n");
+        src.append("        if (context.shouldUpdate(parentField, ").append(name).append(")) {\n");
+        src.append("            Object newValue = context.convert(").append(name).append(", ").append(field.read("updates")).append(");\n");
+        src.append("            if (context.accepts(").append(name).append(", newValue) && !context.applyStrategy(target, ")
+                .append(name).append(", newValue, report, parentField)) {\n");
+
+        if (field.kind() == Kind.SIMPLE) {
+            src.append("                Object currentValue = ").append(field.read("target")).append(";\n");
+            src.append("                if (!Objects.equals(currentValue, newValue)) {\n");
+            src.append("                    ").append(field.write("target", "(" + field.type() + ") newValue")).append(";\n");
+            src.append("                    changed = true;\n");
+            src.append("                    if (report != null) report.addChange(context.path(parentField, ").append(name)
+                    .append("), currentValue, newValue);\n");
+            src.append("                }\n");
+        } else {
+            src.append("                changed |= context.updateValue(").append(field.read("target")).append(", newValue, ")
+                    .append(field.type()).append(".class, value -> ").append(field.write("target", "(" + field.type() + ") value"))
+                    .append(", report, context.path(parentField, ").append(name).append("), depth);\n");
+        }
+
+        src.append("            }\n");
+        src.append("        }\n");
+    }
+
+    // ======================
+    // Helpers
+    // ======================
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) return null;
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    private String packageOf(Element element) {
+        return processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+    }
+
+    private String flatName(TypeElement type) {
+        Deque<String> names = new ArrayDeque<>();
+        Element current = type;
+        while (current instanceof TypeElement) {
+            names.addFirst(current.getSimpleName().toString());
+            current = current.getEnclosingElement();
+        }
+        return String.join("_", names);
+    }
+
+    private String boxedName(TypeMirror primitive) {
+        return processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) primitive).getQualifiedName().toString();
+    }
+
+    private static boolean hasAnnotation(Element element, String annotationName) {
+        return findAnnotation(element, annotationName) != null;
+    }
+
+    private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(annotationName)) return mirror;
+        }
+        return null;
+    }
+
+    private static String annotationValue(Element element, String annotationName) {
+        AnnotationMirror mirror = findAnnotation(element, annotationName);
+        if (mirror == null) return null;
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) return String.valueOf(entry.getValue().getValue());
+        }
+        return null;
+    }
+
+    private static String capitalize(String name) {
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String literal(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20 || c > 0x7e) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}